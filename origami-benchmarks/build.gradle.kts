@@ -0,0 +1,20 @@
+plugins {
+    id("origami.kotlin-conventions")
+    alias(libs.plugins.jmh)
+}
+
+dependencies {
+    jmh(project(":origami"))
+    jmh(libs.accesswidener)
+    jmh(libs.bundles.asm)
+    jmh(libs.bundles.kotlin)
+}
+
+jmh {
+    jmhVersion = "1.37"
+    fork = 2
+    warmupIterations = 5
+    iterations = 5
+    resultFormat = "JSON"
+    includes = providers.gradleProperty("jmh.includes").map { listOf(it) }.orElse(emptyList())
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package xyz.xenondevs.origami.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import xyz.xenondevs.origami.asm.PatchClassWriter
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+private const val PAIRS = 1000
+
+/**
+ * Measures [PatchClassWriter.getCommonSuperClass] for random pairs of classes, both on a fresh class path (cold)
+ * and on a class path that has already resolved every pair (warm), whose results come from the shared cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class CommonSuperClassBenchmark {
+    
+    @Param("20000")
+    @JvmField
+    var classCount = 0
+    
+    private lateinit var syntheticClassPath: SyntheticClassPath
+    private lateinit var warmWriter: PatchClassWriter
+    private lateinit var pairs: List<Pair<String, String>>
+    private var index = 0
+    
+    @Setup
+    fun setup() {
+        syntheticClassPath = SyntheticClassPath(classCount)
+        val classNames = syntheticClassPath.classNames
+        val random = Random(42)
+        pairs = List(PAIRS) { classNames.random(random) to classNames.random(random) }
+        
+        warmWriter = PatchClassWriter(syntheticClassPath.createClassPath())
+        for ((type1, type2) in pairs) {
+            warmWriter.getCommonSuperClass(type1, type2)
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    fun getCommonSuperClassCold(blackhole: Blackhole) {
+        val writer = PatchClassWriter(syntheticClassPath.createClassPath())
+        for ((type1, type2) in pairs) {
+            blackhole.consume(writer.getCommonSuperClass(type1, type2))
+        }
+    }
+    
+    @Benchmark
+    fun getCommonSuperClassWarm(): String {
+        index = (index + 1) % PAIRS
+        val (type1, type2) = pairs[index]
+        return warmWriter.getCommonSuperClass(type1, type2)
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package xyz.xenondevs.origami.benchmark
+
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.tree.ClassNode
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import xyz.xenondevs.origami.asm.DynamicInvoker
+import xyz.xenondevs.origami.asm.LazyClassPath
+import java.util.concurrent.TimeUnit
+
+private const val CLASSES = 20000
+private const val MIXINS = 200
+
+/**
+ * Measures [DynamicInvoker.transform] for mixin classes that reference plugin and Minecraft classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DynamicInvokerBenchmark {
+    
+    private lateinit var syntheticClassPath: SyntheticClassPath
+    private lateinit var pluginClassPath: LazyClassPath
+    private lateinit var mixins: List<ClassNode>
+    
+    @Setup
+    fun setup() {
+        syntheticClassPath = SyntheticClassPath(CLASSES, MIXINS)
+        DynamicInvoker.minecraftClassPath = syntheticClassPath.createClassPath()
+        pluginClassPath = syntheticClassPath.createPluginClassPath()
+    }
+    
+    @Setup(Level.Invocation)
+    fun readMixins() {
+        // DynamicInvoker.transform modifies the class nodes in place
+        mixins = syntheticClassPath.mixins.map { bytes -> ClassNode().also { ClassReader(bytes).accept(it, ClassReader.SKIP_FRAMES) } }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(MIXINS)
+    fun transform(): List<ClassNode> {
+        for (mixin in mixins) {
+            DynamicInvoker.transform(mixin, "benchmark", pluginClassPath)
+        }
+        return mixins
+    }
+    
+}
\ No newline at end of file
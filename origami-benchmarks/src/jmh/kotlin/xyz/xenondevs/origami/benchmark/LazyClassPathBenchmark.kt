@@ -0,0 +1,98 @@
+package xyz.xenondevs.origami.benchmark
+
+import org.objectweb.asm.tree.ClassNode
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import xyz.xenondevs.origami.asm.ClassHeader
+import xyz.xenondevs.origami.asm.InheritanceTree
+import xyz.xenondevs.origami.asm.LazyClassPath
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+private const val LOOKUPS = 1000
+
+/**
+ * Measures [LazyClassPath.getClass], [LazyClassPath.getHeader] and [LazyClassPath.getTree], both on a fresh class path (cold), which needs to
+ * read every class from the jar, and on a class path that has already seen every class (warm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class LazyClassPathBenchmark {
+    
+    @Param("20000")
+    @JvmField
+    var classCount = 0
+    
+    private lateinit var syntheticClassPath: SyntheticClassPath
+    private lateinit var warmClassPath: LazyClassPath
+    private lateinit var names: List<String>
+    private var index = 0
+    
+    @Setup
+    fun setup() {
+        syntheticClassPath = SyntheticClassPath(classCount)
+        val random = Random(42)
+        names = List(LOOKUPS) { syntheticClassPath.concreteClassNames.random(random) }
+        
+        warmClassPath = syntheticClassPath.createClassPath()
+        for (name in syntheticClassPath.classNames) {
+            warmClassPath.getClass(name)
+            warmClassPath.getTree(warmClassPath.getHeader(name)!!)
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    fun getClassCold(blackhole: Blackhole) {
+        val classPath = syntheticClassPath.createClassPath()
+        for (name in names) {
+            blackhole.consume(classPath.getClass(name))
+        }
+    }
+    
+    @Benchmark
+    fun getClassWarm(): ClassNode? {
+        index = (index + 1) % LOOKUPS
+        return warmClassPath.getClass(names[index])
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    fun getHeaderCold(blackhole: Blackhole) {
+        val classPath = syntheticClassPath.createClassPath()
+        for (name in names) {
+            blackhole.consume(classPath.getHeader(name))
+        }
+    }
+    
+    @Benchmark
+    fun getHeaderWarm(): ClassHeader? {
+        index = (index + 1) % LOOKUPS
+        return warmClassPath.getHeader(names[index])
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    fun getTreeCold(blackhole: Blackhole) {
+        val classPath = syntheticClassPath.createClassPath()
+        for (name in names) {
+            blackhole.consume(classPath.getTree(classPath.getHeader(name)!!))
+        }
+    }
+    
+    @Benchmark
+    fun getTreeWarm(): InheritanceTree {
+        index = (index + 1) % LOOKUPS
+        return warmClassPath.getTree(warmClassPath.getHeader(names[index])!!)
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,301 @@
+package xyz.xenondevs.origami.benchmark
+
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import org.objectweb.asm.tree.ClassNode
+import xyz.xenondevs.origami.asm.ClassPathIndex
+import xyz.xenondevs.origami.asm.LazyClassPath
+import xyz.xenondevs.origami.util.WriteOnlyArrayList
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.jar.JarEntry
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import kotlin.io.path.outputStream
+import kotlin.random.Random
+
+private const val OBJECT = "java/lang/Object"
+private const val MINECRAFT_PACKAGE = "net/minecraft/synthetic"
+private const val PLUGIN_PACKAGE = "com/example/plugin"
+private const val CLASSES_PER_PACKAGE = 100
+private const val PLUGIN_CLASSES = 10
+
+/**
+ * A generated jar that mimics the class hierarchy of a Minecraft server, together with an access widener and
+ * mixin classes of a plugin that target it.
+ *
+ * All classes are generated from a fixed [seed], so every run of a benchmark works on the same class path.
+ *
+ * - Every tenth class is an interface that extends up to one other interface.
+ * - All other classes extend a previously generated class (resulting in deep hierarchies like those of entities
+ *   and blocks) and implement up to two interfaces.
+ * - Every class has a static `pick` method that returns one of two unrelated class types, whose frames require
+ *   [ClassWriter.getCommonSuperClass], and a `tick` method with a loop.
+ * - Every third class is targeted by the access widener.
+ * - The mixin classes reference plugin classes in all the ways that [xyz.xenondevs.origami.asm.DynamicInvoker]
+ *   rewrites, as well as Minecraft classes.
+ * - The plugin classes extend Minecraft classes and are stored in a separate [pluginJar] together with the mixins.
+ */
+class SyntheticClassPath(val classCount: Int, val mixinCount: Int = classCount / 100, seed: Long = 42) {
+    
+    private val random = Random(seed)
+    
+    /**
+     * The internal names of all generated Minecraft classes and interfaces.
+     */
+    val classNames = ArrayList<String>(classCount)
+    
+    /**
+     * The internal names of all generated Minecraft classes that aren't interfaces.
+     */
+    val concreteClassNames = ArrayList<String>(classCount)
+    
+    /**
+     * The bytecode of all generated Minecraft classes, mapped by internal name.
+     */
+    val bytecode = LinkedHashMap<String, ByteArray>(classCount)
+    
+    /**
+     * The bytecode of all generated mixin classes.
+     */
+    val mixins = ArrayList<ByteArray>(mixinCount)
+    
+    /**
+     * The classes that are targeted by [accessWidener].
+     */
+    val accessWidenerTargets = ArrayList<String>()
+    
+    /**
+     * An access widener in the `accessWidener v2 named` format.
+     */
+    val accessWidener: String
+    
+    /**
+     * The generated jar containing all Minecraft classes.
+     */
+    val jar: Path = Files.createTempFile("origami-benchmark", ".jar")
+    
+    /**
+     * The generated jar containing all plugin and mixin classes.
+     */
+    val pluginJar: Path = Files.createTempFile("origami-benchmark-plugin", ".jar")
+    
+    private val interfaces = ArrayList<String>()
+    
+    init {
+        jar.toFile().deleteOnExit()
+        pluginJar.toFile().deleteOnExit()
+        
+        for (i in 0..<classCount) {
+            val name = "$MINECRAFT_PACKAGE/p${i / CLASSES_PER_PACKAGE}/C$i"
+            classNames += name
+            bytecode[name] = if (i % 10 == 0) generateInterface(name) else generateClass(name)
+        }
+        
+        accessWidener = buildString {
+            appendLine("accessWidener v2 named")
+            for ((i, name) in concreteClassNames.withIndex()) {
+                if (i % 3 != 0)
+                    continue
+                
+                accessWidenerTargets += name
+                appendLine("accessible class $name")
+                appendLine("accessible method $name tick (I)I")
+                appendLine("accessible field $name value I")
+                appendLine("mutable field $name value I")
+            }
+        }
+        
+        repeat(mixinCount) { mixins += generateMixin("$PLUGIN_PACKAGE/mixin/Mixin$it") }
+        
+        writeJar(jar, bytecode)
+        
+        val pluginClasses = LinkedHashMap<String, ByteArray>()
+        repeat(PLUGIN_CLASSES) { pluginClasses["$PLUGIN_PACKAGE/Api$it"] = generatePluginClass("$PLUGIN_PACKAGE/Api$it") }
+        mixins.forEachIndexed { i, bytes -> pluginClasses["$PLUGIN_PACKAGE/mixin/Mixin$i"] = bytes }
+        writeJar(pluginJar, pluginClasses)
+    }
+    
+    /**
+     * The generated jar, opened once and shared by all class paths created through [createClassPath].
+     */
+    val files: WriteOnlyArrayList<JarFile> by lazy { WriteOnlyArrayList<JarFile>().apply { add(JarFile(jar.toFile())) } }
+    
+    /**
+     * A [ClassPathIndex] of the generated jar, like the one of the Minecraft class loader.
+     */
+    val index by lazy { ClassPathIndex(listOf(jar.toUri().toURL())) }
+    
+    /**
+     * Creates a new, empty [LazyClassPath] of the generated jar.
+     */
+    fun createClassPath(): LazyClassPath {
+        return LazyClassPath(files, index = index)
+    }
+    
+    /**
+     * Creates a new [LazyClassPath] of the generated plugin jar, like the one that the plugin loader creates for
+     * every plugin.
+     */
+    fun createPluginClassPath(): LazyClassPath {
+        val files = WriteOnlyArrayList<JarFile>().apply { add(JarFile(pluginJar.toFile())) }
+        return LazyClassPath(files, index = ClassPathIndex(listOf(pluginJar.toUri().toURL()), cacheSize = 0))
+    }
+    
+    private fun writeJar(path: Path, classes: Map<String, ByteArray>) {
+        JarOutputStream(path.outputStream().buffered()).use { out ->
+            for ((name, bytes) in classes) {
+                out.putNextEntry(JarEntry("$name.class"))
+                out.write(bytes)
+                out.closeEntry()
+            }
+        }
+    }
+    
+    private fun generateInterface(name: String): ByteArray {
+        val superInterfaces = if (interfaces.isNotEmpty() && random.nextBoolean()) arrayOf(interfaces.random(random)) else null
+        interfaces += name
+        
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V21, Opcodes.ACC_PUBLIC or Opcodes.ACC_INTERFACE or Opcodes.ACC_ABSTRACT, name, null, OBJECT, superInterfaces)
+        writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, "run", "()V", null, null).visitEnd()
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+    
+    private fun generateClass(name: String): ByteArray {
+        // Prefer recently generated classes as super classes to produce deep hierarchies
+        val superName = if (concreteClassNames.size < 10 || random.nextInt(20) == 0) OBJECT
+        else concreteClassNames[concreteClassNames.size - 1 - random.nextInt(minOf(concreteClassNames.size, 50))]
+        val classInterfaces = if (interfaces.isEmpty()) emptyArray()
+        else Array(random.nextInt(3)) { interfaces.random(random) }.distinct().toTypedArray()
+        
+        val pickTypes = if (concreteClassNames.size < 2) arrayOf(OBJECT, OBJECT)
+        else arrayOf(concreteClassNames.random(random), concreteClassNames.random(random))
+        
+        concreteClassNames += name
+        
+        // The frames of the generated classes are never verified, so Object is a sufficient common super class
+        val writer = object : ClassWriter(COMPUTE_FRAMES) {
+            override fun getCommonSuperClass(type1: String, type2: String) = OBJECT
+        }
+        writer.visit(Opcodes.V21, Opcodes.ACC_PUBLIC, name, null, superName, classInterfaces)
+        writer.visitField(Opcodes.ACC_PRIVATE or Opcodes.ACC_FINAL, "value", "I", null, null).visitEnd()
+        
+        val init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+        init.visitCode()
+        init.visitVarInsn(Opcodes.ALOAD, 0)
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false)
+        init.visitVarInsn(Opcodes.ALOAD, 0)
+        init.visitLdcInsn(random.nextInt())
+        init.visitFieldInsn(Opcodes.PUTFIELD, name, "value", "I")
+        init.visitInsn(Opcodes.RETURN)
+        init.visitMaxs(0, 0)
+        init.visitEnd()
+        
+        val pick = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "pick", "(ZL${pickTypes[0]};L${pickTypes[1]};)Ljava/lang/Object;", null, null)
+        val second = Label()
+        val end = Label()
+        pick.visitCode()
+        pick.visitVarInsn(Opcodes.ILOAD, 0)
+        pick.visitJumpInsn(Opcodes.IFEQ, second)
+        pick.visitVarInsn(Opcodes.ALOAD, 1)
+        pick.visitJumpInsn(Opcodes.GOTO, end)
+        pick.visitLabel(second)
+        pick.visitVarInsn(Opcodes.ALOAD, 2)
+        pick.visitLabel(end)
+        pick.visitInsn(Opcodes.ARETURN)
+        pick.visitMaxs(0, 0)
+        pick.visitEnd()
+        
+        val tick = writer.visitMethod(Opcodes.ACC_PRIVATE, "tick", "(I)I", null, null)
+        val loop = Label()
+        val exit = Label()
+        tick.visitCode()
+        tick.visitInsn(Opcodes.ICONST_0)
+        tick.visitVarInsn(Opcodes.ISTORE, 2)
+        tick.visitLabel(loop)
+        tick.visitVarInsn(Opcodes.ILOAD, 2)
+        tick.visitVarInsn(Opcodes.ILOAD, 1)
+        tick.visitJumpInsn(Opcodes.IF_ICMPGE, exit)
+        tick.visitVarInsn(Opcodes.ALOAD, 0)
+        tick.visitFieldInsn(Opcodes.GETFIELD, name, "value", "I")
+        tick.visitVarInsn(Opcodes.ILOAD, 2)
+        tick.visitInsn(Opcodes.IXOR)
+        tick.visitVarInsn(Opcodes.ISTORE, 2)
+        tick.visitIincInsn(2, 1)
+        tick.visitJumpInsn(Opcodes.GOTO, loop)
+        tick.visitLabel(exit)
+        tick.visitVarInsn(Opcodes.ILOAD, 2)
+        tick.visitInsn(Opcodes.IRETURN)
+        tick.visitMaxs(0, 0)
+        tick.visitEnd()
+        
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+    
+    private fun generatePluginClass(name: String): ByteArray {
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V21, Opcodes.ACC_PUBLIC, name, null, concreteClassNames.random(random), null)
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+    
+    private fun generateMixin(name: String): ByteArray {
+        val target = concreteClassNames.random(random)
+        val pluginClass = "$PLUGIN_PACKAGE/Api${random.nextInt(PLUGIN_CLASSES)}"
+        val pluginType = "L$pluginClass;"
+        
+        val node = ClassNode()
+        node.visit(Opcodes.V21, Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, name, null, OBJECT, null)
+        node.visitField(Opcodes.ACC_PRIVATE, "api", pluginType, null, null).visitEnd()
+        node.visitField(Opcodes.ACC_PRIVATE, "apis", "[$pluginType", null, null).visitEnd()
+        
+        val inject = node.visitMethod(Opcodes.ACC_PRIVATE, "inject", "(L$target;$pluginType)$pluginType", null, null)
+        inject.visitCode()
+        // Plugin constructor, method and field access
+        inject.visitTypeInsn(Opcodes.NEW, pluginClass)
+        inject.visitInsn(Opcodes.DUP)
+        inject.visitVarInsn(Opcodes.ALOAD, 1)
+        inject.visitMethodInsn(Opcodes.INVOKESPECIAL, pluginClass, "<init>", "(L$target;)V", false)
+        inject.visitVarInsn(Opcodes.ASTORE, 3)
+        inject.visitVarInsn(Opcodes.ALOAD, 3)
+        inject.visitMethodInsn(Opcodes.INVOKEVIRTUAL, pluginClass, "handle", "(L$target;)$pluginType", false)
+        inject.visitFieldInsn(Opcodes.GETFIELD, pluginClass, "count", "I")
+        inject.visitInsn(Opcodes.POP)
+        inject.visitFieldInsn(Opcodes.GETSTATIC, pluginClass, "INSTANCE", pluginType)
+        inject.visitTypeInsn(Opcodes.CHECKCAST, pluginClass)
+        inject.visitInsn(Opcodes.POP)
+        // Type checks and class constants
+        inject.visitVarInsn(Opcodes.ALOAD, 2)
+        inject.visitTypeInsn(Opcodes.INSTANCEOF, pluginClass)
+        inject.visitInsn(Opcodes.POP)
+        inject.visitLdcInsn(Type.getObjectType(pluginClass))
+        inject.visitInsn(Opcodes.POP)
+        inject.visitInsn(Opcodes.ICONST_1)
+        inject.visitTypeInsn(Opcodes.ANEWARRAY, pluginClass)
+        inject.visitInsn(Opcodes.POP)
+        // Minecraft method and field access
+        inject.visitVarInsn(Opcodes.ALOAD, 1)
+        inject.visitInsn(Opcodes.ICONST_1)
+        inject.visitMethodInsn(Opcodes.INVOKEVIRTUAL, target, "tick", "(I)I", false)
+        inject.visitInsn(Opcodes.POP)
+        inject.visitVarInsn(Opcodes.ALOAD, 1)
+        inject.visitFieldInsn(Opcodes.GETFIELD, target, "value", "I")
+        inject.visitInsn(Opcodes.POP)
+        inject.visitVarInsn(Opcodes.ALOAD, 3)
+        inject.visitInsn(Opcodes.ARETURN)
+        inject.visitMaxs(5, 4)
+        inject.visitEnd()
+        
+        node.visitEnd()
+        
+        val writer = ClassWriter(0)
+        node.accept(writer)
+        return writer.toByteArray()
+    }
+    
+}
\ No newline at end of file
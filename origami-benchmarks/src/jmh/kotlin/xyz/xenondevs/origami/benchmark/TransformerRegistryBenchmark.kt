@@ -0,0 +1,58 @@
+package xyz.xenondevs.origami.benchmark
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import xyz.xenondevs.origami.transformer.runtime.AccessTransformer
+import xyz.xenondevs.origami.transformer.runtime.TransformerRegistry
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [TransformerRegistry.transform] for classes that are targeted by an access widener and, as a baseline, for
+ * classes that aren't targeted at all. Mixins can't be applied outside a running server, so they are not part of this benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TransformerRegistryBenchmark {
+    
+    @Param("20000")
+    @JvmField
+    var classCount = 0
+    
+    private lateinit var targets: List<Pair<String, ByteArray>>
+    private lateinit var untargeted: List<Pair<String, ByteArray>>
+    private var index = 0
+    
+    @Setup
+    fun setup() {
+        val classPath = SyntheticClassPath(classCount)
+        AccessTransformer.readAccessWidener(classPath.accessWidener.byteInputStream())
+        TransformerRegistry.init()
+        
+        val targetNames = classPath.accessWidenerTargets.toHashSet()
+        targets = classPath.bytecode.filterKeys { it in targetNames }.toList()
+        untargeted = classPath.bytecode.filterKeys { it !in targetNames }.toList()
+    }
+    
+    @Benchmark
+    fun transformAccessWidened(): ByteArray {
+        index = (index + 1) % targets.size
+        val (name, bytecode) = targets[index]
+        // Released like after defining the class, otherwise later passes would only measure a lookup of the result
+        return TransformerRegistry.transform(bytecode, name).also { TransformerRegistry.release(name) }
+    }
+    
+    @Benchmark
+    fun baselineUntargeted(): ByteArray {
+        index = (index + 1) % untargeted.size
+        val (name, bytecode) = untargeted[index]
+        return TransformerRegistry.transform(bytecode, name)
+    }
+    
+}
\ No newline at end of file
@@ -4,8 +4,12 @@ import com.llamalad7.mixinextras.MixinExtrasBootstrap
 import kotlinx.coroutines.runBlocking
 import org.spongepowered.asm.launch.MixinBootstrap
 import org.spongepowered.asm.mixin.MixinEnvironment
+import xyz.xenondevs.origami.asm.DynamicInvoker
+import xyz.xenondevs.origami.asm.HierarchyIndex
 import xyz.xenondevs.origami.asm.LazyClassPath
 import xyz.xenondevs.origami.asm.LookupProxy
+import xyz.xenondevs.origami.metrics.StartupTimeline
+import xyz.xenondevs.origami.metrics.TransformationMetrics
 import xyz.xenondevs.origami.mixin.OrigamiMixinService
 import xyz.xenondevs.origami.transformer.paper.PaperTransformers
 import xyz.xenondevs.origami.transformer.paper.PaperclipPatcher
@@ -36,34 +40,45 @@ class Origami(
         instance = this
         this.minecraftLoader = minecraftLoader
         
-        val files = urls.mapNotNullTo(WriteOnlyArrayList()) {
-            var url = it
-            if (url.protocol != "jar") {
-                if (url.protocol == "file" && url.path.endsWith(".jar")) {
-                    url = URL("jar:${url.toExternalForm()}!/")
-                } else {
-                    return@mapNotNullTo null
+        val files = phase("classpath") {
+            urls.mapNotNullTo(WriteOnlyArrayList()) {
+                var url = it
+                if (url.protocol != "jar") {
+                    if (url.protocol == "file" && url.path.endsWith(".jar")) {
+                        url = URL("jar:${url.toExternalForm()}!/")
+                    } else {
+                        return@mapNotNullTo null
+                    }
                 }
+                // This uses the cached JarFile from the URLClassLoader
+                val connection = url.openConnection() as JarURLConnection
+                connection.jarFile
             }
-            // This uses the cached JarFile from the URLClassLoader
-            val connection = url.openConnection() as JarURLConnection
-            connection.jarFile
         }
-        minecraftClasspath = LazyClassPath(files)
+        val hierarchy = phase("hierarchy index") { HierarchyIndex.load(minecraftLoader.index) }
+        minecraftClasspath = LazyClassPath(files, index = minecraftLoader.index, hierarchy = hierarchy)
+        DynamicInvoker.minecraftClassPath = minecraftClasspath
         
-        LookupProxy.init()
+        phase("lookup proxy") { LookupProxy.init() }
         instrumentation.addTransformer(PaperTransformers(instrumentation, minecraftClasspath))
         
         // Force mixin to not even check the other service implementation since they access invalid Minecraft classes
         System.setProperty("mixin.service", OrigamiMixinService::class.java.canonicalName)
-        MixinBootstrap.init()
-        runBlocking { PluginLoader.loadPlugins() }
-        finishMixinPhases()
-        MixinExtrasBootstrap.init()
+        phase("mixin bootstrap") { MixinBootstrap.init() }
+        phase("plugins") { runBlocking { PluginLoader.loadPlugins() } }
+        phase("mixin phases") { finishMixinPhases() }
+        phase("mixin extras") { MixinExtrasBootstrap.init() }
         
-        TransformerRegistry.init()
+        TransformationMetrics.register()
+        phase("transformers") { TransformerRegistry.init() }
+        TransformerRegistry.pretransform(minecraftLoader)
+        
+        StartupTimeline.report()
     }
     
+    private inline fun <T> phase(name: String, block: () -> T): T =
+        StartupTimeline.record("phase", name, block)
+    
     private fun finishMixinPhases() {
         val method = MixinEnvironment::class.java.getDeclaredMethod("gotoPhase", MixinEnvironment.Phase::class.java)
         method.isAccessible = true
@@ -1,5 +1,7 @@
 package xyz.xenondevs.origami;
 
+import xyz.xenondevs.origami.asm.ClassPathIndex;
+import xyz.xenondevs.origami.metrics.TransformationMetrics;
 import xyz.xenondevs.origami.transformer.runtime.TransformerRegistry;
 
 import java.io.IOException;
@@ -9,6 +11,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.CodeSigner;
 import java.security.CodeSource;
+import java.util.Arrays;
 
 // TODO: block any loads that would lead to a class of the plugin that ships the agent being loaded by the agent classloader
 public class PatchingClassLoader extends URLClassLoader {
@@ -18,10 +21,12 @@ public class PatchingClassLoader extends URLClassLoader {
     }
     
     private final ClassLoader origamiLoader;
+    private final ClassPathIndex index;
     
     public PatchingClassLoader(URL[] classpathUrls, ClassLoader parent) {
         super(classpathUrls, parent);
         this.origamiLoader = Origami.class.getClassLoader();
+        this.index = new ClassPathIndex(Arrays.asList(classpathUrls));
     }
     
     public record ClassData(byte[] bytecode, CodeSource codeSource) {
@@ -40,6 +45,7 @@ public class PatchingClassLoader extends URLClassLoader {
             }
         }
         
+        var start = System.nanoTime();
         var internalName = name.replace('.', '/');
         var classData = getTransformedData(internalName, false);
         
@@ -48,10 +54,16 @@ public class PatchingClassLoader extends URLClassLoader {
             var loaded = findLoadedClass(name);
             if (loaded != null) {
                 // TODO is this safe
+                index.evict(internalName);
+                TransformerRegistry.release(internalName);
                 return loaded;
             }
             
-            return defineClass(name, classData.bytecode, 0, classData.bytecode.length, classData.codeSource);
+            var clazz = defineClass(name, classData.bytecode, 0, classData.bytecode.length, classData.codeSource);
+            index.evict(internalName);
+            TransformerRegistry.release(internalName);
+            TransformationMetrics.recordFindClass(System.nanoTime() - start);
+            return clazz;
         }
         
         return super.findClass(name);
@@ -93,6 +105,16 @@ public class PatchingClassLoader extends URLClassLoader {
                 throw new IllegalArgumentException("Cannot initiate classes in origamiLoader: " + internalName);
             url = origamiLoader.getResource(resourceName);
         } else {
+            var id = index.find(internalName);
+            if (id != -1) {
+                try {
+                    return new ClassData(index.read(id), index.getCodeSource(id));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    // fall back to the resource lookup below
+                }
+            }
+            
             url = initiating ? findResource(resourceName) : getResource(resourceName);
         }
         if (url == null)
@@ -120,11 +142,23 @@ public class PatchingClassLoader extends URLClassLoader {
         }
     }
     
+    public ClassPathIndex getIndex() {
+        return index;
+    }
+    
     public ClassData getTransformedData(String internalName, boolean initiating) {
         var classData = getClassData(internalName, initiating);
         if (classData == null) return null;
         
+        // Classes that are already defined are only inspected by mixin, so their transformation isn't retained
+        var name = internalName.replace('/', '.');
+        if (findLoadedClass(name) != null)
+            return new ClassData(TransformerRegistry.transformUnretained(classData.bytecode, internalName), classData.codeSource);
+        
         var transformed = TransformerRegistry.transform(classData.bytecode, internalName);
+        // The class may have been defined in the meantime, in which case nothing would release the result anymore
+        if (findLoadedClass(name) != null)
+            TransformerRegistry.release(internalName);
         
         return new ClassData(transformed, classData.codeSource);
     }
@@ -13,7 +13,10 @@ import org.spongepowered.asm.mixin.Mixins
 import org.spongepowered.asm.mixin.extensibility.IMixinConfig
 import org.spongepowered.asm.service.MixinService
 import org.yaml.snakeyaml.Yaml
+import xyz.xenondevs.origami.asm.ClassPathIndex
 import xyz.xenondevs.origami.asm.DynamicInvoker
+import xyz.xenondevs.origami.asm.LazyClassPath
+import xyz.xenondevs.origami.metrics.StartupTimeline
 import xyz.xenondevs.origami.mixin.OrigamiMixinService
 import xyz.xenondevs.origami.transformer.runtime.AccessTransformer
 import java.net.JarURLConnection
@@ -22,7 +25,7 @@ import java.util.jar.JarFile
 import kotlin.io.path.Path
 import kotlin.io.path.listDirectoryEntries
 
-private data class PluginInfo(val jar: JarFile, val origamiJson: JsonObject, val paperYml: Map<String, Any>) {
+private data class PluginInfo(val jar: JarFile, val classPath: LazyClassPath, val origamiJson: JsonObject, val paperYml: Map<String, Any>) {
     val pluginName = paperYml["name"]?.toString()
         ?: throw IllegalArgumentException("Plugin does not have a valid name in paper-plugin.yml")
     val pluginId = origamiJson.getAsJsonPrimitive("pluginId")?.asString ?: pluginName
@@ -46,11 +49,15 @@ object PluginLoader {
         
         val origamiPlugins = plugins.map { path ->
             async(Dispatchers.IO) {
+                val start = System.nanoTime()
                 val url = path.toUri().toURL()
                 val jar = (URL("jar:${url.toExternalForm()}!/").openConnection() as JarURLConnection).jarFile
                 
-                val origamiEntry = jar.getJarEntry("origami.json") ?: return@async null
-                val paperEntry = jar.getJarEntry("paper-plugin.yml") ?: return@async null
+                val origamiEntry = jar.getJarEntry("origami.json")
+                val paperEntry = jar.getJarEntry("paper-plugin.yml")
+                StartupTimeline.record("plugin scan", path.fileName.toString(), start, System.nanoTime())
+                if (origamiEntry == null || paperEntry == null)
+                    return@async null
                 
                 try {
                     val origamiJson = jar.getInputStream(origamiEntry)
@@ -59,7 +66,10 @@ object PluginLoader {
                     val paperYml = jar.getInputStream(paperEntry)
                         .bufferedReader()
                         .use { Yaml().load<Map<String, Any>>(it) }
-                    PluginInfo(jar, origamiJson.asJsonObject, paperYml)
+                    // Indexes the classes of the plugin, so DynamicInvoker can look up their hierarchy. Its classes are never
+                    // defined through this index, so their class files aren't cached.
+                    val classPath = LazyClassPath(listOf(jar), index = ClassPathIndex(listOf(url), cacheSize = 0))
+                    PluginInfo(jar, classPath, origamiJson.asJsonObject, paperYml)
                 } catch (e: Exception) {
                     System.err.println("Failed to parse plugin from ${path.fileName}: ${e.message}")
                     e.printStackTrace()
@@ -76,7 +86,7 @@ object PluginLoader {
         origamiPlugins.map {
             async(Dispatchers.IO) {
                 try {
-                    loadPlugin(it)
+                    StartupTimeline.record("plugin parse", it.pluginName) { loadPlugin(it) }
                 } catch (e: Exception) {
                     System.err.println("Failed to load plugin from ${it.jar.name}: ${e.message}")
                     e.printStackTrace()
@@ -84,8 +94,11 @@ object PluginLoader {
             }
         }.awaitAll()
         
+        // The class paths of the plugins are only needed to preprocess their mixins and are dropped afterward
+        val classPaths = origamiPlugins.associate { it.jar to it.classPath }
         for (config in Mixins.getConfigs()) {
             val plugin = configOwners[config.name] ?: continue
+            val start = System.nanoTime()
             val jar = plugin.jar
             val mixinConfig = config.config
             mixinConfig.decorate(FabricUtil.KEY_MOD_ID, plugin.id)
@@ -106,11 +119,12 @@ object PluginLoader {
                 jar.getInputStream(je).use { inp ->
                     ClassReader(inp).accept(clazz, ClassReader.SKIP_FRAMES)
                 }
-                DynamicInvoker.transform(clazz, plugin.name)
+                DynamicInvoker.transform(clazz, plugin.name, classPaths[plugin.jar])
                 mixinClasses[mixinPath] = clazz
             }
             
             mixinConfigs.add(mixinConfig)
+            StartupTimeline.record("mixin config", config.name, start, System.nanoTime())
         }
     }
     
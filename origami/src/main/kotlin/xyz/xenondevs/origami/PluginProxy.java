@@ -4,6 +4,8 @@ import org.jetbrains.annotations.NotNull;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import xyz.xenondevs.origami.asm.LookupProxy;
+import xyz.xenondevs.origami.metrics.PluginProxyLinkEvent;
+import xyz.xenondevs.origami.metrics.TransformationMetrics;
 
 import java.lang.invoke.*;
 import java.lang.runtime.SwitchBootstraps;
@@ -11,21 +13,22 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class PluginProxy {
     
-    public static Map<String, Map<String, ClassHandles>> PLUGIN_HANDLES = new ConcurrentHashMap<>();
+    public static Map<String, PluginHandles> PLUGIN_HANDLES = new ConcurrentHashMap<>();
     
     private static MethodHandle CLASS_INSTANCE_HANDLE;
+    private static MethodHandle LINK_HANDLE;
     
     static {
         try {
             CLASS_INSTANCE_HANDLE = MethodHandles.lookup().findVirtual(Class.class, "isInstance", MethodType.methodType(boolean.class, Object.class));
+            LINK_HANDLE = MethodHandles.lookup().findVirtual(LazyCallSite.class, "link", MethodType.methodType(Object.class, Object[].class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
-            throw new RuntimeException("Failed to find Class.isInstance method handle", e);
+            throw new RuntimeException("Failed to find method handles", e);
         }
     }
     
@@ -77,10 +80,36 @@ public class PluginProxy {
         }
     }
     
+    /**
+     * The handles required by the mixins of a plugin. Every handle is assigned a slot by {@link #addRequiredHandle},
+     * which is passed to the bootstraps, so that linking a call site is a plain array access.
+     * Handles are only resolved once the first call site that needs them is linked.
+     */
+    public static class PluginHandles {
+        private final Map<String, ClassHandles> classes = new ConcurrentHashMap<>();
+        private volatile ClassHandles[] owners = new ClassHandles[16];
+        private volatile HandleKey[] keys = new HandleKey[16];
+        private volatile MethodHandle[] handles = new MethodHandle[16];
+        private int size;
+        
+        private synchronized int addSlot(ClassHandles owner, HandleKey key) {
+            var slot = size++;
+            if (slot == owners.length) {
+                owners = Arrays.copyOf(owners, slot * 2);
+                keys = Arrays.copyOf(keys, slot * 2);
+                handles = Arrays.copyOf(handles, slot * 2);
+            }
+            owners[slot] = owner;
+            keys[slot] = key;
+            return slot;
+        }
+    }
+    
     public static class ClassHandles {
-        private final CompletableFuture<Boolean> initialized = new CompletableFuture<>();
-        private final Set<HandleKey> required = ConcurrentHashMap.newKeySet();
-        private final Map<HandleKey, MethodHandle> handles = new ConcurrentHashMap<>();
+        private final Map<HandleKey, Integer> required = new ConcurrentHashMap<>();
+        // Set once the class is loaded by the plugin class loader or first needed by a bootstrap
+        private volatile Class<?> clazz;
+        private volatile MethodHandles.Lookup lookup;
     }
     
     @SuppressWarnings("unused") // indy to this created by DynamicInvoker
@@ -91,14 +120,10 @@ public class PluginProxy {
         String plugin,
         String owner,
         String desc,
-        int isStatic
+        int isStatic,
+        int slot
     ) {
-        var classHandles = checkInitialized(plugin, owner);
-        var key = new HandleKey(isStatic == 1 ? HandleType.STATIC_METHOD : HandleType.VIRTUAL_METHOD, name, desc);
-        var mh = classHandles.handles.get(key);
-        if (mh == null)
-            throw new BootstrapMethodError("Method call " + name + desc + " in class " + owner + " was not discovered during mixin scanning but is being accessed!");
-        return new ConstantCallSite(mh.asType(type));
+        return new LazyCallSite(type, plugin, owner, slot);
     }
     
     @SuppressWarnings("unused") // indy to this created by DynamicInvoker
@@ -109,15 +134,10 @@ public class PluginProxy {
         String plugin,
         String owner,
         String desc,
-        int opcode
+        int opcode,
+        int slot
     ) {
-        var classHandles = checkInitialized(plugin, owner);
-        var handleType = HandleType.fromFieldOpcode(opcode);
-        var key = new HandleKey(handleType, name, desc);
-        var mh = classHandles.handles.get(key);
-        if (mh == null)
-            throw new BootstrapMethodError("Access of field " + desc + " " + name + " owned by " + owner + " was not discovered during mixin scanning but is being accessed!");
-        return new ConstantCallSite(mh.asType(type));
+        return new LazyCallSite(type, plugin, owner, slot);
     }
     
     @SuppressWarnings("unused") // indy to this created by DynamicInvoker
@@ -127,14 +147,38 @@ public class PluginProxy {
         MethodType type,
         String plugin,
         String owner,
-        String desc
+        String desc,
+        int slot
     ) {
-        var classHandles = checkInitialized(plugin, owner);
-        var key = new HandleKey(HandleType.CONSTRUCTOR, "<init>", desc);
-        var mh = classHandles.handles.get(key);
-        if (mh == null)
-            throw new BootstrapMethodError("Constructor call of " + owner + desc + " was not discovered during mixin scanning but is being accessed!");
-        return new ConstantCallSite(mh.asType(type));
+        return new LazyCallSite(type, plugin, owner, slot);
+    }
+    
+    /**
+     * A call site that resolves its plugin handle on its first invocation instead of during linkage and then swaps to
+     * the resolved handle. This way, linking a mixin never blocks on loading the plugin class, so the thread that
+     * first runs a mixin (often the main thread) only waits if it actually invokes the plugin code.
+     */
+    static final class LazyCallSite extends MutableCallSite {
+        
+        private final String plugin;
+        private final String owner;
+        private final int slot;
+        
+        LazyCallSite(MethodType type, String plugin, String owner, int slot) {
+            super(type);
+            this.plugin = plugin;
+            this.owner = owner;
+            this.slot = slot;
+            setTarget(LINK_HANDLE.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+        }
+        
+        Object link(Object[] args) throws Throwable {
+            // Multiple threads may link at once, which is harmless since they all resolve the same handle
+            var target = getHandle(plugin, owner, slot).asType(type());
+            setTarget(target);
+            return target.invokeWithArguments(args);
+        }
+        
     }
     
     @SuppressWarnings("unused") // indy to this created by DynamicInvoker
@@ -148,16 +192,15 @@ public class PluginProxy {
         String targetName,
         String originalTargetDesc,
         String originalDynamicDesc,
-        int handleTag
+        int handleTag,
+        int slot
     ) throws LambdaConversionException {
-        var classHandles = checkInitialized(plugin, targetOwner);
-        var key = new HandleKey(HandleType.fromTag(handleTag), targetName, originalTargetDesc);
-        var mh = classHandles.handles.get(key);
-        if (mh == null)
-            throw new BootstrapMethodError("Method call " + targetName + originalTargetDesc + " in class " + targetOwner + " was not discovered during mixin scanning but is being accessed!");
+        var event = new PluginProxyLinkEvent();
+        event.begin();
+        var mh = getHandle(plugin, targetOwner, slot);
         
         var pluginProxy = LookupProxy.getLookupFor(plugin);
-        return LambdaMetafactory.metafactory(
+        var callSite = LambdaMetafactory.metafactory(
             pluginProxy,
             interfaceMethod,
             factoryType,
@@ -165,6 +208,8 @@ public class PluginProxy {
             mh,
             toMethodType(originalDynamicDesc, pluginProxy.lookupClass().getClassLoader())
         );
+        event.commit(plugin, targetOwner, HandleType.fromTag(handleTag).name(), targetName + originalTargetDesc);
+        return callSite;
     }
     
     @SuppressWarnings("unused") // indy to this created by DynamicInvoker
@@ -176,6 +221,8 @@ public class PluginProxy {
         int isEnum,
         String... targets
     ) {
+        var event = new PluginProxyLinkEvent();
+        event.begin();
         try {
             var lookup = LookupProxy.getLookupFor(plugin);
             if (isEnum == 1)
@@ -185,7 +232,9 @@ public class PluginProxy {
             for (int i = 0; i < targets.length; i++) {
                 targetClasses[i] = lookup.findClass(targets[i].replace('/', '.'));
             }
-            return SwitchBootstraps.typeSwitch(lookup, name, type, (Object[]) targetClasses);
+            var callSite = SwitchBootstraps.typeSwitch(lookup, name, type, (Object[]) targetClasses);
+            event.commit(plugin, String.join(", ", targets), "SWITCH", null);
+            return callSite;
         } catch (Exception e) {
             throw new BootstrapMethodError("Failed to find classes " + Arrays.toString(targets) + " for switch bootstrap in plugin " + plugin, e);
         }
@@ -199,10 +248,13 @@ public class PluginProxy {
         String plugin,
         String className
     ) {
+        var event = new PluginProxyLinkEvent();
+        event.begin();
         try {
             var lookup = LookupProxy.getLookupFor(plugin);
             var clazz = lookup.findClass(className.replace('/', '.'));
             var handle = CLASS_INSTANCE_HANDLE.bindTo(clazz);
+            event.commit(plugin, className, "INSTANCE_OF", null);
             return new ConstantCallSite(handle);
         } catch (Exception e) {
             throw new BootstrapMethodError("Failed to find class " + className + " for instanceof proxy in plugin " + plugin, e);
@@ -217,79 +269,117 @@ public class PluginProxy {
         String plugin,
         String className
     ) {
+        var event = new PluginProxyLinkEvent();
+        event.begin();
         try {
             var lookup = LookupProxy.getLookupFor(plugin);
             var clazz = lookup.findClass(className.replace('/', '.'));
+            event.commit(plugin, className, "CLASS", null);
             return new ConstantCallSite(MethodHandles.constant(Class.class, clazz));
         } catch (Exception e) {
             throw new BootstrapMethodError("Failed to find class " + className + " for class proxy in plugin " + plugin, e);
         }
     }
     
-    private static ClassHandles checkInitialized(String plugin, String owner) {
+    private static MethodHandle getHandle(String plugin, String owner, int slot) {
         var pluginHandles = PLUGIN_HANDLES.get(plugin);
         if (pluginHandles == null) {
             throw new BootstrapMethodError("Plugin " + plugin + " invoked dynamically but isn't configured to use Origami!");
         }
-        var classHandle = pluginHandles.get(owner);
-        if (classHandle == null) {
+        var owners = pluginHandles.owners;
+        if (slot >= owners.length || owners[slot] == null) {
             throw new BootstrapMethodError("Class " + owner + " was not discovered during mixin scanning!");
         }
+        
+        var handle = pluginHandles.handles[slot];
+        if (handle == null) {
+            // Two threads may resolve the same handle at once, which is harmless since both resolve an equivalent handle
+            var key = pluginHandles.keys[slot];
+            var event = new PluginProxyLinkEvent();
+            event.begin();
+            var start = System.nanoTime();
+            handle = resolveHandle(plugin, owner, owners[slot], key);
+            // addSlot may replace the array in the meantime, so the handle is stored in the current array under its lock
+            synchronized (pluginHandles) {
+                pluginHandles.handles[slot] = handle;
+            }
+            TransformationMetrics.recordHandleResolution(System.nanoTime() - start);
+            var member = switch (key.type) {
+                case CONSTRUCTOR, VIRTUAL_METHOD, STATIC_METHOD -> key.name + key.desc;
+                default -> key.name + " " + key.desc;
+            };
+            event.commit(plugin, owner, key.type.name(), member);
+        }
+        return handle;
+    }
+    
+    private static MethodHandle resolveHandle(String plugin, String owner, ClassHandles classHandles, HandleKey key) {
+        var lookup = getLookup(plugin, owner, classHandles);
+        var clazz = lookup.lookupClass();
+        var loader = clazz.getClassLoader();
+        try {
+            return switch (key.type) {
+                case CONSTRUCTOR -> lookup.findConstructor(clazz, toMethodType(key.desc, loader));
+                case VIRTUAL_METHOD -> lookup.findVirtual(clazz, key.name, toMethodType(key.desc, loader));
+                case STATIC_METHOD -> lookup.findStatic(clazz, key.name, toMethodType(key.desc, loader));
+                case VIRTUAL_GETTER -> lookup.findGetter(clazz, key.name, toClass(key.desc, loader));
+                case STATIC_GETTER -> lookup.findStaticGetter(clazz, key.name, toClass(key.desc, loader));
+                case VIRTUAL_SETTER -> lookup.findSetter(clazz, key.name, toClass(key.desc, loader));
+                case STATIC_SETTER -> lookup.findStaticSetter(clazz, key.name, toClass(key.desc, loader));
+            };
+        } catch (NoSuchMethodException | IllegalAccessException | NoSuchFieldException | ClassNotFoundException e) {
+            throw new BootstrapMethodError("Failed to resolve " + key + " in class " + owner + " from " + plugin, e);
+        }
+    }
+    
+    private static MethodHandles.Lookup getLookup(String plugin, String owner, ClassHandles classHandles) {
+        var lookup = classHandles.lookup;
+        if (lookup != null)
+            return lookup;
+        
         try {
             var pluginLookup = LookupProxy.getLookupFor(plugin);
-            pluginLookup.findClass(owner.replace('/', '.'));
-            if (!classHandle.initialized.get()) // waits for initialization to complete (other thread might be initializing it)
-                throw new BootstrapMethodError("Handles of " + owner + " from " + plugin + " failed initialization!");
+            var clazz = classHandles.clazz;
+            if (clazz == null)
+                clazz = pluginLookup.findClass(owner.replace('/', '.'));
+            lookup = MethodHandles.privateLookupIn(clazz, pluginLookup);
         } catch (Exception e) {
             throw new BootstrapMethodError("Class " + owner + " can not been initialized yet!", e);
         }
-        return classHandle;
+        classHandles.lookup = lookup;
+        return lookup;
     }
     
-    public static void addRequiredHandle(String plugin, String owner, HandleType type, String name, String desc) {
-        var pluginHandles = PLUGIN_HANDLES.computeIfAbsent(plugin, k -> new ConcurrentHashMap<>());
-        var classHandles = pluginHandles.computeIfAbsent(owner, k -> new ClassHandles());
+    /**
+     * Registers a handle that is required by the mixins of a plugin and returns its slot, which needs to be passed to
+     * the bootstrap of the call site. Registering the same handle twice returns the same slot.
+     */
+    public static int addRequiredHandle(String plugin, String owner, HandleType type, String name, String desc) {
+        var pluginHandles = PLUGIN_HANDLES.computeIfAbsent(plugin, k -> new PluginHandles());
+        var classHandles = pluginHandles.classes.computeIfAbsent(owner, k -> new ClassHandles());
         var key = new HandleKey(type, name, desc);
-        classHandles.required.add(key);
+        return classHandles.required.computeIfAbsent(key, k -> pluginHandles.addSlot(classHandles, key));
     }
     
     @SuppressWarnings("unused") // Call injected by PaperPluginClassLoaderTransformer
     public static Set<String> getRequired(String plugin) {
         var pluginHandles = PLUGIN_HANDLES.get(plugin);
-        return pluginHandles == null ? null : pluginHandles.keySet().stream().map(s -> s.replace('/', '.')).collect(Collectors.toSet());
+        return pluginHandles == null ? null : pluginHandles.classes.keySet().stream().map(s -> s.replace('/', '.')).collect(Collectors.toSet());
     }
     
+    /**
+     * Registers a class with required handles once it is loaded by the class loader of its plugin. Its handles are
+     * only resolved once the first call site that needs them is linked. Repeated registrations are ignored.
+     */
     @SuppressWarnings("unused") // Call injected by PaperPluginClassLoaderTransformer
-    public static void initializeHandles(String plugin, Class<?> clazz) {
-        MethodHandles.Lookup lookup;
-        try {
-            lookup = MethodHandles.privateLookupIn(clazz, LookupProxy.getLookupFor(plugin));
-        } catch (IllegalAccessException | IllegalStateException e) {
-            throw new IllegalStateException("Failed to gain trusted lookup for class " + clazz.getName(), e);
-        }
-        
-        var ch = PLUGIN_HANDLES.get(plugin).get(clazz.getName().replace('.', '/'));
-        var loader = clazz.getClassLoader();
+    public static void registerClass(String plugin, Class<?> clazz) {
+        var pluginHandles = PLUGIN_HANDLES.get(plugin);
+        if (pluginHandles == null)
+            return;
         
-        try {
-            for (var missing : ch.required) {
-                var handle = switch (missing.type) {
-                    case CONSTRUCTOR -> lookup.findConstructor(clazz, toMethodType(missing.desc, loader));
-                    case VIRTUAL_METHOD -> lookup.findVirtual(clazz, missing.name, toMethodType(missing.desc, loader));
-                    case STATIC_METHOD -> lookup.findStatic(clazz, missing.name, toMethodType(missing.desc, loader));
-                    case VIRTUAL_GETTER -> lookup.findGetter(clazz, missing.name, toClass(missing.desc, loader));
-                    case STATIC_GETTER -> lookup.findStaticGetter(clazz, missing.name, toClass(missing.desc, loader));
-                    case VIRTUAL_SETTER -> lookup.findSetter(clazz, missing.name, toClass(missing.desc, loader));
-                    case STATIC_SETTER -> lookup.findStaticSetter(clazz, missing.name, toClass(missing.desc, loader));
-                };
-                ch.handles.putIfAbsent(missing, handle);
-            }
-            
-            ch.initialized.complete(true);
-        } catch (NoSuchMethodException | IllegalAccessException | NoSuchFieldException | ClassNotFoundException e) {
-            ch.initialized.complete(false);
-            throw new IllegalStateException("Failed to initialize handles in class " + clazz.getName() + ", required: \n" + ch.required, e);
-        }
+        var classHandles = pluginHandles.classes.get(clazz.getName().replace('.', '/'));
+        if (classHandles != null && classHandles.clazz == null)
+            classHandles.clazz = clazz;
     }
     
     private static MethodType toMethodType(String desc, ClassLoader loader) {
@@ -0,0 +1,39 @@
+package xyz.xenondevs.origami.asm
+
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.Opcodes
+
+/**
+ * The access flags, name, super name and interfaces of a class, which is all that is needed for hierarchy lookups.
+ *
+ * Headers are compared by identity, as a [LazyClassPath] only creates one header per class. The [id] is unique
+ * within the [LazyClassPath] and used by [InheritanceTree].
+ */
+class ClassHeader(val id: Int, val access: Int, val name: String, val superName: String?, val interfaces: List<String>) {
+    
+    val isInterface: Boolean
+        get() = access and Opcodes.ACC_INTERFACE != 0
+    
+    override fun toString(): String = name
+    
+    companion object {
+        
+        /**
+         * Reads the header of the class file [bytecode] without parsing its fields, methods or attributes and assigns
+         * it the given [id]. All names are interned, since the same super classes and interfaces are referenced by
+         * many classes.
+         */
+        fun read(bytecode: ByteArray, id: Int): ClassHeader {
+            val reader = ClassReader(bytecode)
+            return ClassHeader(
+                id,
+                reader.access,
+                reader.className.intern(),
+                reader.superName?.intern(),
+                reader.interfaces.map(String::intern)
+            )
+        }
+        
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,379 @@
+package xyz.xenondevs.origami.asm
+
+import xyz.xenondevs.origami.util.BoundedCache
+import java.io.IOException
+import java.net.URL
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.security.CodeSigner
+import java.security.CodeSource
+import java.security.MessageDigest
+import java.util.zip.Inflater
+import java.util.zip.ZipException
+import kotlin.io.path.fileSize
+
+private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+private const val END_SIGNATURE = 0x06054b50
+
+private const val VERSIONS_PREFIX = "META-INF/versions/"
+private const val MANIFEST_NAME = "META-INF/MANIFEST.MF"
+
+private const val INITIAL_CAPACITY = 1024
+
+/**
+ * Spreads the higher bits of a hash code to the lower ones, which are used to index the hash table.
+ */
+private fun Int.spread(): Int = this xor (this ushr 16)
+
+/**
+ * An index of all class files in a list of jars, built once from the jars' central directories.
+ *
+ * Class files are read directly from memory-mapped jars, which avoids creating a [URL], opening a
+ * [java.net.JarURLConnection] and allocating a [CodeSource] for every class. Jars that can't be indexed
+ * (e.g. zip64 archives or jars larger than 2 GiB) are skipped and need to be handled by the caller.
+ *
+ * Like a [java.net.URLClassLoader], the first jar that contains a class wins and versioned entries of
+ * multi-release jars are respected.
+ *
+ * Class names are stored as UTF-8 in a single byte array and looked up through an open-addressing hash table
+ * of class ids, so the index doesn't hold a [String] or an entry object per class.
+ *
+ * The class loader, the [LazyClassPath] and the mixin service all read class files through this index, so recently
+ * read class files are kept in a small cache until their class is defined, which means that each class file is usually
+ * only inflated once. The cache size can be changed with `-Dorigami.classpath.cache.bytes=<bytes>`. Indices whose
+ * classes are never defined through them should pass a [cacheSize] of zero, since nothing would evict their entries.
+ */
+class ClassPathIndex @JvmOverloads constructor(urls: List<URL>, cacheSize: Long = CACHE_SIZE) {
+    
+    private class Jar(val buffer: MappedByteBuffer, val codeSource: CodeSource)
+    
+    private class Entry(val jar: Jar, val headerOffset: Int, val compressedSize: Int, val size: Int, val method: Int)
+    
+    private val jars = ArrayList<Jar>()
+    
+    /**
+     * The number of indexed classes.
+     */
+    var size = 0
+        private set
+    
+    // Class names, where the name of class i is stored at names[nameOffsets[i]..<nameOffsets[i + 1]]
+    private var names = ByteArray(1 shl 16)
+    private var nameOffsets = IntArray(INITIAL_CAPACITY + 1)
+    private var nameHashes = IntArray(INITIAL_CAPACITY)
+    
+    // The location of class i in its jar
+    private var jarIds = IntArray(INITIAL_CAPACITY)
+    private var headerOffsets = IntArray(INITIAL_CAPACITY)
+    private var compressedSizes = IntArray(INITIAL_CAPACITY)
+    private var sizes = IntArray(INITIAL_CAPACITY)
+    private var methods = ByteArray(INITIAL_CAPACITY)
+    
+    // Linear probing hash table of class id + 1, 0 marks an empty slot
+    private var table = IntArray(INITIAL_CAPACITY * 2)
+    
+    // Recently read class files by class id
+    private val cache = BoundedCache<Int, ByteArray>(cacheSize)
+    
+    /**
+     * A SHA-256 hash of the central directories of all indexed jars, which changes whenever any indexed entry changes.
+     */
+    val fingerprint: ByteArray
+    
+    init {
+        val digest = MessageDigest.getInstance("SHA-256")
+        for (url in urls) {
+            if (url.protocol != "file" || !url.path.endsWith(".jar"))
+                continue
+            
+            try {
+                indexJar(url, digest)
+            } catch (e: Exception) {
+                System.err.println("Failed to index $url: ${e.message}")
+            }
+        }
+        fingerprint = digest.digest()
+    }
+    
+    private fun indexJar(url: URL, digest: MessageDigest) {
+        val path = Path.of(url.toURI())
+        val size = path.fileSize()
+        if (size > Int.MAX_VALUE)
+            throw ZipException("Jar is too large to be mapped")
+        
+        val buffer = FileChannel.open(path).use { it.map(FileChannel.MapMode.READ_ONLY, 0, size) }
+        buffer.order(ByteOrder.LITTLE_ENDIAN)
+        val jar = Jar(buffer, CodeSource(url, null as Array<CodeSigner>?))
+        
+        val end = findEndOfCentralDirectory(buffer)
+        val count = buffer.getShort(end + 10).toUShort().toInt()
+        val directorySize = buffer.getInt(end + 12).toUInt().toLong()
+        val directoryOffset = buffer.getInt(end + 16).toUInt().toLong()
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+            throw ZipException("Zip64 archives are not supported")
+        // Jars may have data prepended to them, in which case all offsets are shifted
+        val base = (end - directorySize - directoryOffset).toInt()
+        
+        val classes = HashMap<String, Entry>()
+        val versioned = HashMap<String, Pair<Int, Entry>>()
+        var manifest: Entry? = null
+        
+        var pos = (base + directoryOffset).toInt()
+        repeat(count) {
+            if (buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE)
+                throw ZipException("Invalid central directory header at $pos")
+            
+            val flags = buffer.getShort(pos + 8).toInt()
+            val method = buffer.getShort(pos + 10).toInt()
+            val compressedSize = buffer.getInt(pos + 20)
+            val uncompressedSize = buffer.getInt(pos + 24)
+            val nameLength = buffer.getShort(pos + 28).toUShort().toInt()
+            val extraLength = buffer.getShort(pos + 30).toUShort().toInt()
+            val commentLength = buffer.getShort(pos + 32).toUShort().toInt()
+            val headerOffset = base + buffer.getInt(pos + 42)
+            val name = ByteArray(nameLength).also { buffer.get(pos + 46, it) }.decodeToString()
+            pos += 46 + nameLength + extraLength + commentLength
+            
+            // Skip encrypted entries
+            if (flags and 1 != 0)
+                return@repeat
+            
+            val entry = Entry(jar, headerOffset, compressedSize, uncompressedSize, method)
+            if (name == MANIFEST_NAME) {
+                manifest = entry
+            } else if (name.endsWith(".class")) {
+                if (name.startsWith(VERSIONS_PREFIX)) {
+                    val versionEnd = name.indexOf('/', VERSIONS_PREFIX.length)
+                    val version = name.substring(VERSIONS_PREFIX.length, versionEnd).toIntOrNull()
+                        ?: return@repeat
+                    val className = name.substring(versionEnd + 1, name.length - 6)
+                    if (version <= Runtime.version().feature() && version > (versioned[className]?.first ?: 0))
+                        versioned[className] = version to entry
+                } else {
+                    classes[name.substring(0, name.length - 6)] = entry
+                }
+            }
+        }
+        
+        if (versioned.isNotEmpty() && manifest?.let(::isMultiRelease) == true) {
+            for ((className, versionedEntry) in versioned) {
+                classes[className] = versionedEntry.second
+            }
+        }
+        
+        // The central directory contains the crc, size and name of every entry
+        digest.update(buffer.slice((base + directoryOffset).toInt(), directorySize.toInt()))
+        
+        val jarId = jars.size
+        jars += jar
+        for ((className, entry) in classes) {
+            add(className, jarId, entry)
+        }
+    }
+    
+    private fun add(name: String, jarId: Int, entry: Entry) {
+        val hash = name.hashCode()
+        var slot = hash.spread() and (table.size - 1)
+        while (table[slot] != 0) {
+            // The first jar that contains a class wins
+            if (matches(table[slot] - 1, hash, name))
+                return
+            slot = (slot + 1) and (table.size - 1)
+        }
+        
+        val id = size++
+        if (id == jarIds.size)
+            grow()
+        
+        val bytes = name.encodeToByteArray()
+        val nameOffset = nameOffsets[id]
+        if (nameOffset + bytes.size > names.size)
+            names = names.copyOf(maxOf(names.size * 2, nameOffset + bytes.size))
+        bytes.copyInto(names, nameOffset)
+        nameOffsets[id + 1] = nameOffset + bytes.size
+        nameHashes[id] = hash
+        
+        jarIds[id] = jarId
+        headerOffsets[id] = entry.headerOffset
+        compressedSizes[id] = entry.compressedSize
+        sizes[id] = entry.size
+        methods[id] = entry.method.toByte()
+        
+        table[slot] = id + 1
+        if (size * 2 > table.size)
+            rehash()
+    }
+    
+    private fun grow() {
+        val capacity = jarIds.size * 2
+        nameOffsets = nameOffsets.copyOf(capacity + 1)
+        nameHashes = nameHashes.copyOf(capacity)
+        jarIds = jarIds.copyOf(capacity)
+        headerOffsets = headerOffsets.copyOf(capacity)
+        compressedSizes = compressedSizes.copyOf(capacity)
+        sizes = sizes.copyOf(capacity)
+        methods = methods.copyOf(capacity)
+    }
+    
+    private fun rehash() {
+        val newTable = IntArray(table.size * 2)
+        for (id in 0..<size) {
+            var slot = nameHashes[id].spread() and (newTable.size - 1)
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) and (newTable.size - 1)
+            }
+            newTable[slot] = id + 1
+        }
+        table = newTable
+    }
+    
+    private fun matches(id: Int, hash: Int, name: String): Boolean {
+        if (nameHashes[id] != hash)
+            return false
+        
+        val offset = nameOffsets[id]
+        val length = nameOffsets[id + 1] - offset
+        if (length != name.length) {
+            // Names with non-ASCII characters are longer in UTF-8
+            return name.length < length && String(names, offset, length, Charsets.UTF_8) == name
+        }
+        
+        for (i in 0..<length) {
+            val b = names[offset + i]
+            if (b < 0 || b.toInt().toChar() != name[i])
+                return false
+        }
+        return true
+    }
+    
+    private fun findEndOfCentralDirectory(buffer: MappedByteBuffer): Int {
+        val min = (buffer.capacity() - 22 - 0xFFFF).coerceAtLeast(0)
+        for (pos in buffer.capacity() - 22 downTo min) {
+            if (buffer.getInt(pos) == END_SIGNATURE)
+                return pos
+        }
+        throw ZipException("End of central directory not found")
+    }
+    
+    private fun isMultiRelease(manifest: Entry): Boolean {
+        return read(manifest).decodeToString()
+            .lineSequence()
+            .any { it.trim().equals("Multi-Release: true", ignoreCase = true) }
+    }
+    
+    /**
+     * Gets the id of the class with the given [internalName], or -1 if it is not part of this index.
+     */
+    fun find(internalName: String): Int {
+        val hash = internalName.hashCode()
+        var slot = hash.spread() and (table.size - 1)
+        while (true) {
+            val id = table[slot] - 1
+            if (id == -1)
+                return -1
+            if (matches(id, hash, internalName))
+                return id
+            slot = (slot + 1) and (table.size - 1)
+        }
+    }
+    
+    /**
+     * Gets the internal name of the class with the given [id].
+     */
+    fun getName(id: Int): String {
+        val offset = nameOffsets[id]
+        return String(names, offset, nameOffsets[id + 1] - offset, Charsets.UTF_8)
+    }
+    
+    /**
+     * Checks whether the class with the given [internalName] is part of this index.
+     */
+    operator fun contains(internalName: String): Boolean {
+        return find(internalName) != -1
+    }
+    
+    /**
+     * Gets the [CodeSource] of the jar that contains the class with the given [id].
+     */
+    fun getCodeSource(id: Int): CodeSource {
+        return jars[jarIds[id]].codeSource
+    }
+    
+    /**
+     * Reads the class file of the class with the given [id]. The returned array may be shared and must not be modified.
+     */
+    @Throws(IOException::class)
+    fun read(id: Int): ByteArray {
+        cache[id]?.let { return it }
+        
+        val bytes = readUncached(id)
+        return cache.putIfAbsent(id, bytes, bytes.size)
+    }
+    
+    /**
+     * Reads the class file of the class with the given [id] without caching it, for bulk reads of classes that
+     * aren't about to be defined.
+     */
+    @Throws(IOException::class)
+    internal fun readUncached(id: Int): ByteArray {
+        return read(jars[jarIds[id]], headerOffsets[id], compressedSizes[id], sizes[id], methods[id].toInt())
+    }
+    
+    /**
+     * Removes the class file of the class with the given [internalName] from the cache, which should be done once
+     * the class is defined.
+     */
+    fun evict(internalName: String) {
+        val id = find(internalName)
+        if (id != -1)
+            cache.remove(id)
+    }
+    
+    private fun read(entry: Entry): ByteArray {
+        return read(entry.jar, entry.headerOffset, entry.compressedSize, entry.size, entry.method)
+    }
+    
+    private fun read(jar: Jar, header: Int, compressedSize: Int, size: Int, method: Int): ByteArray {
+        val buffer = jar.buffer
+        if (buffer.getInt(header) != LOCAL_HEADER_SIGNATURE)
+            throw ZipException("Invalid local file header at $header")
+        
+        val nameLength = buffer.getShort(header + 26).toUShort().toInt()
+        val extraLength = buffer.getShort(header + 28).toUShort().toInt()
+        val dataOffset = header + 30 + nameLength + extraLength
+        
+        val bytes = ByteArray(size)
+        when (method) {
+            0 -> buffer.get(dataOffset, bytes)
+            8 -> {
+                val inflater = Inflater(true)
+                try {
+                    inflater.setInput(buffer.slice(dataOffset, compressedSize))
+                    var n = 0
+                    while (n < bytes.size && !inflater.finished()) {
+                        val read = inflater.inflate(bytes, n, bytes.size - n)
+                        if (read == 0 && inflater.needsInput())
+                            throw ZipException("Unexpected end of deflated data")
+                        n += read
+                    }
+                } finally {
+                    inflater.end()
+                }
+            }
+            
+            else -> throw ZipException("Unsupported compression method $method")
+        }
+        
+        return bytes
+    }
+    
+    companion object {
+        
+        private val CACHE_SIZE = System.getProperty("origami.classpath.cache.bytes", (8 shl 20).toString()).toLong()
+        
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,51 @@
+package xyz.xenondevs.origami.asm
+
+import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.tree.MethodNode
+
+/**
+ * Captures the identity of all methods, instructions and try-catch blocks of a [ClassNode] in order to find out
+ * which methods were changed by a transformer that modifies the class in place.
+ */
+class CodeSnapshot(clazz: ClassNode) {
+    
+    private val methods = clazz.methods.associateBy({ it.name + it.desc }, ::MethodCode)
+    
+    /**
+     * Adds the name and descriptor of all methods of [clazz] that were added or whose code was changed since this
+     * snapshot was taken to [modified].
+     */
+    fun collectModified(clazz: ClassNode, modified: MutableSet<String>) {
+        for (method in clazz.methods) {
+            val key = method.name + method.desc
+            val original = methods[key]
+            if (original == null || !original.matches(method))
+                modified += key
+        }
+    }
+    
+    private class MethodCode(private val method: MethodNode) {
+        
+        private val instructions = method.instructions.toArray()
+        private val tryCatchBlocks = method.tryCatchBlocks?.toTypedArray() ?: emptyArray()
+        
+        /**
+         * Checks whether [method] is still the same node with the same instructions and try-catch blocks.
+         */
+        fun matches(method: MethodNode): Boolean {
+            if (method !== this.method || method.instructions.size() != instructions.size)
+                return false
+            
+            var i = 0
+            for (insn in method.instructions) {
+                if (insn !== instructions[i++])
+                    return false
+            }
+            
+            val blocks = method.tryCatchBlocks ?: emptyList()
+            return blocks.size == tryCatchBlocks.size && blocks.indices.all { blocks[it] === tryCatchBlocks[it] }
+        }
+        
+    }
+    
+}
\ No newline at end of file
@@ -12,7 +12,6 @@ import org.objectweb.asm.tree.LdcInsnNode
 import org.objectweb.asm.tree.MethodInsnNode
 import org.objectweb.asm.tree.MultiANewArrayInsnNode
 import org.objectweb.asm.tree.TypeInsnNode
-import xyz.xenondevs.origami.Origami
 import xyz.xenondevs.origami.PluginProxy
 import xyz.xenondevs.origami.PluginProxy.HandleType
 import xyz.xenondevs.origami.util.internalName
@@ -22,18 +21,17 @@ private typealias InsnIterator = MutableListIterator<AbstractInsnNode>
 // TODO: Referencing other plugins from within mixins
 object DynamicInvoker {
     
-    val minecraftClassPath
-        get() = Origami.instance.minecraftClasspath
+    lateinit var minecraftClassPath: LazyClassPath
     
     val PLUGIN_PROXY_NAME = PluginProxy::class.internalName
     
-    val METHOD_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyMethod", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;", false)
+    val METHOD_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyMethod", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;II)Ljava/lang/invoke/CallSite;", false)
     
-    val CONSTRUCTOR_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyConstructor", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false)
+    val CONSTRUCTOR_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyConstructor", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;", false)
     
-    val FIELD_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyField", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;", false)
+    val FIELD_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyField", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;II)Ljava/lang/invoke/CallSite;", false)
     
-    val METAFACTORY_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyMetafactory", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;", false)
+    val METAFACTORY_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyMetafactory", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;II)Ljava/lang/invoke/CallSite;", false)
     
     val SWITCH_BOOTSTRAPS_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxySwitch", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;I[Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false)
     
@@ -41,30 +39,30 @@ object DynamicInvoker {
     
     val CLASS_PROXY_HANDLE = Handle(Opcodes.H_INVOKESTATIC, PLUGIN_PROXY_NAME, "proxyClass", $$"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/invoke/CallSite;", false)
     
-    fun transform(clazz: ClassNode, pluginName: String) {
+    fun transform(clazz: ClassNode, pluginName: String, pluginClasses: LazyClassPath? = null) {
         val currentMixin = clazz.name
         clazz.methods.forEach { m ->
             val insns = m.instructions
             val iter = insns.iterator()
             while (iter.hasNext()) {
                 when (val insn = iter.next()) {
-                    is TypeInsnNode -> visitTypeInsn(pluginName, insns, iter, insn, currentMixin)
-                    is MethodInsnNode -> visitMethodInsn(pluginName, insns, iter, insn, currentMixin)
-                    is FieldInsnNode -> visitFieldInsn(pluginName, insns, iter, insn, currentMixin)
-                    is MultiANewArrayInsnNode -> visitMultiANewArrayInsn(insn, currentMixin)
-                    is InvokeDynamicInsnNode -> visitInvokeDynamic(pluginName, iter, insn, currentMixin)
+                    is TypeInsnNode -> visitTypeInsn(pluginName, insns, iter, insn, currentMixin, pluginClasses)
+                    is MethodInsnNode -> visitMethodInsn(pluginName, insns, iter, insn, currentMixin, pluginClasses)
+                    is FieldInsnNode -> visitFieldInsn(pluginName, insns, iter, insn, currentMixin, pluginClasses)
+                    is MultiANewArrayInsnNode -> visitMultiANewArrayInsn(insn, currentMixin, pluginClasses)
+                    is InvokeDynamicInsnNode -> visitInvokeDynamic(pluginName, iter, insn, currentMixin, pluginClasses)
                     is LdcInsnNode -> visitLdc(pluginName, iter, insn, currentMixin)
                 }
             }
-            m.desc = fixDesc(m.desc, currentMixin)
+            m.desc = fixDesc(m.desc, currentMixin, pluginClasses)
         }
         
         clazz.fields.forEach { f ->
-            f.desc = fixType(Type.getType(f.desc), currentMixin).descriptor
+            f.desc = fixType(Type.getType(f.desc), currentMixin, pluginClasses).descriptor
         }
     }
     
-    fun visitTypeInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: TypeInsnNode, currentClass: String) {
+    fun visitTypeInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: TypeInsnNode, currentClass: String, pluginClasses: LazyClassPath?) {
         if (!isPluginClass(insn.desc, currentClass))
             return
         
@@ -81,11 +79,17 @@ object DynamicInvoker {
             }
             
             Opcodes.CHECKCAST -> {
-                // All plugin casts are done by method handle layers. The mixin class only knows plugin classes as Objects.
-                iter.remove()
+                // All plugin casts are done by method handle layers. The mixin class only knows plugin classes by their
+                // erased types, so the cast is either removed or changed to a cast to the erased type.
+                val erasedType = fixType(Type.getObjectType(insn.desc), currentClass, pluginClasses)
+                if (erasedType == OBJECT_TYPE) {
+                    iter.remove()
+                } else {
+                    insn.desc = erasedType.internalName
+                }
             }
             
-            Opcodes.ANEWARRAY -> insn.desc = OBJECT_TYPE.internalName
+            Opcodes.ANEWARRAY -> insn.desc = fixType(Type.getObjectType(insn.desc), currentClass, pluginClasses).internalName
             
             Opcodes.INSTANCEOF -> {
                 // Instanceof checks are replaced with a call to Class.isInstance(Object) method handle with the receiver
@@ -97,9 +101,9 @@ object DynamicInvoker {
         }
     }
     
-    fun visitMethodInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: MethodInsnNode, currentClass: String) {
+    fun visitMethodInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: MethodInsnNode, currentClass: String, pluginClasses: LazyClassPath?) {
         if (!isPluginClass(insn.owner, currentClass)) {
-            insn.desc = fixDesc(insn.desc, currentClass)
+            insn.desc = fixDesc(insn.desc, currentClass, pluginClasses)
             return
         }
         
@@ -109,43 +113,43 @@ object DynamicInvoker {
         
         when (insn.opcode) {
             Opcodes.INVOKEVIRTUAL, Opcodes.INVOKESTATIC, Opcodes.INVOKEINTERFACE -> {
-                val returnType = fixType(Type.getReturnType(desc), currentClass)
-                val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass) }
+                val returnType = fixType(Type.getReturnType(desc), currentClass, pluginClasses)
+                val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass, pluginClasses) }
                 if (insn.opcode != Opcodes.INVOKESTATIC) {
-                    argumentTypes.add(0, OBJECT_TYPE)
+                    argumentTypes.add(0, fixType(Type.getObjectType(owner), currentClass, pluginClasses))
                 }
                 val newDesc = Type.getMethodDescriptor(returnType, *argumentTypes.toTypedArray())
                 val isStatic = insn.opcode == Opcodes.INVOKESTATIC
-                iter.set(InvokeDynamicInsnNode(name, newDesc, METHOD_PROXY_HANDLE, pluginName, owner, desc, if (isStatic) 1 else 0))
-                PluginProxy.addRequiredHandle(pluginName, owner, if (isStatic) HandleType.STATIC_METHOD else HandleType.VIRTUAL_METHOD, name, desc)
+                val slot = PluginProxy.addRequiredHandle(pluginName, owner, if (isStatic) HandleType.STATIC_METHOD else HandleType.VIRTUAL_METHOD, name, desc)
+                iter.set(InvokeDynamicInsnNode(name, newDesc, METHOD_PROXY_HANDLE, pluginName, owner, desc, if (isStatic) 1 else 0, slot))
             }
             
             Opcodes.INVOKESPECIAL -> {
                 if (name != "<init>")
                     return // TODO: plugin types in desc possible?
                 
-                val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass) }
-                val newDesc = Type.getMethodDescriptor(OBJECT_TYPE, *argumentTypes.toTypedArray())
-                iter.set(InvokeDynamicInsnNode("ctor" + desc.hashCode().toString(), newDesc, CONSTRUCTOR_PROXY_HANDLE, pluginName, owner, desc))
-                PluginProxy.addRequiredHandle(pluginName, owner, HandleType.CONSTRUCTOR, name, desc)
+                val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass, pluginClasses) }
+                val newDesc = Type.getMethodDescriptor(fixType(Type.getObjectType(owner), currentClass, pluginClasses), *argumentTypes.toTypedArray())
+                val slot = PluginProxy.addRequiredHandle(pluginName, owner, HandleType.CONSTRUCTOR, name, desc)
+                iter.set(InvokeDynamicInsnNode("ctor" + desc.hashCode().toString(), newDesc, CONSTRUCTOR_PROXY_HANDLE, pluginName, owner, desc, slot))
             }
             
             else -> throw IllegalStateException("Unexpected method insn opcode ${insn.opcode}")
         }
     }
     
-    fun visitFieldInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: FieldInsnNode, currentClass: String) {
-        val fieldDesc = fixType(Type.getType(insn.desc), currentClass).descriptor
+    fun visitFieldInsn(pluginName: String, list: InsnList, iter: InsnIterator, insn: FieldInsnNode, currentClass: String, pluginClasses: LazyClassPath?) {
+        val fieldDesc = fixType(Type.getType(insn.desc), currentClass, pluginClasses).descriptor
         val isPluginType = fieldDesc != insn.desc
         val isPluginOwner = isPluginClass(insn.owner, currentClass)
         if (!isPluginType && !isPluginOwner)
             return
         
         if (isPluginType && !isPluginOwner) {
-            insn.desc = OBJECT_TYPE.descriptor
+            insn.desc = fieldDesc
             return
         }
-        val owner = OBJECT_TYPE.descriptor
+        val owner = fixType(Type.getObjectType(insn.owner), currentClass, pluginClasses).descriptor
         val newDesc = when (insn.opcode) {
             Opcodes.GETFIELD -> "($owner)$fieldDesc"
             Opcodes.PUTFIELD -> "($owner$fieldDesc)V"
@@ -154,16 +158,15 @@ object DynamicInvoker {
             else -> throw IllegalStateException("Unexpected field insn opcode ${insn.opcode}")
         }
         
-        iter.set(InvokeDynamicInsnNode(insn.name, newDesc, FIELD_PROXY_HANDLE, pluginName, insn.owner, insn.desc, insn.opcode))
-        PluginProxy.addRequiredHandle(pluginName, insn.owner, HandleType.fromFieldOpcode(insn.opcode), insn.name, insn.desc)
+        val slot = PluginProxy.addRequiredHandle(pluginName, insn.owner, HandleType.fromFieldOpcode(insn.opcode), insn.name, insn.desc)
+        iter.set(InvokeDynamicInsnNode(insn.name, newDesc, FIELD_PROXY_HANDLE, pluginName, insn.owner, insn.desc, insn.opcode, slot))
     }
     
-    fun visitMultiANewArrayInsn(insn: MultiANewArrayInsnNode, currentClass: String) {
-        if (isPluginClass(insn.desc, currentClass))
-            insn.desc = OBJECT_TYPE.internalName
+    fun visitMultiANewArrayInsn(insn: MultiANewArrayInsnNode, currentClass: String, pluginClasses: LazyClassPath?) {
+        insn.desc = fixType(Type.getType(insn.desc), currentClass, pluginClasses).descriptor
     }
     
-    fun visitInvokeDynamic(pluginName: String, iter: InsnIterator, insn: InvokeDynamicInsnNode, currentClass: String) {
+    fun visitInvokeDynamic(pluginName: String, iter: InsnIterator, insn: InvokeDynamicInsnNode, currentClass: String, pluginClasses: LazyClassPath?) {
         val handle = insn.bsm
         if (handle.owner == PLUGIN_PROXY_NAME)
             return
@@ -176,15 +179,16 @@ object DynamicInvoker {
                     targetMethod.tag,
                     targetMethod.owner,
                     targetMethod.name,
-                    fixDesc(targetMethod.desc, currentClass),
+                    fixDesc(targetMethod.desc, currentClass, pluginClasses),
                     targetMethod.isInterface
                 )
-                insn.bsmArgs[2] = Type.getType(fixDesc(originalDynamicDesc, currentClass))
+                insn.bsmArgs[2] = Type.getType(fixDesc(originalDynamicDesc, currentClass, pluginClasses))
             } else if (isPluginClass(targetMethod.owner, currentClass)) {
                 val interfaceType = insn.bsmArgs[0] as Type
+                val slot = PluginProxy.addRequiredHandle(pluginName, targetMethod.owner, HandleType.fromTag(targetMethod.tag), targetMethod.name, targetMethod.desc)
                 iter.set(InvokeDynamicInsnNode(
                     insn.name,
-                    fixDesc(insn.desc, currentClass),
+                    fixDesc(insn.desc, currentClass, pluginClasses),
                     METAFACTORY_PROXY_HANDLE,
                     pluginName,
                     interfaceType,
@@ -192,9 +196,9 @@ object DynamicInvoker {
                     targetMethod.name,
                     targetMethod.desc,
                     originalDynamicDesc,
-                    targetMethod.tag
+                    targetMethod.tag,
+                    slot
                 ))
-                PluginProxy.addRequiredHandle(pluginName, targetMethod.owner, HandleType.fromTag(targetMethod.tag), targetMethod.name, targetMethod.desc)
             }
         } else if (handle.owner == "java/lang/runtime/SwitchBootstraps") {
             if (handle.name == "typeSwitch") {
@@ -202,7 +206,7 @@ object DynamicInvoker {
                 if (types.any { isPluginClass(it, currentClass) }) {
                     iter.set(InvokeDynamicInsnNode(
                         insn.name,
-                        fixDesc(insn.desc, currentClass),
+                        fixDesc(insn.desc, currentClass, pluginClasses),
                         SWITCH_BOOTSTRAPS_PROXY_HANDLE,
                         pluginName,
                         0,
@@ -232,24 +236,26 @@ object DynamicInvoker {
     }
     
     private fun isPluginClass(internalName: String, currentClass: String): Boolean {
-        return minecraftClassPath.getClass(internalName) == null && internalName != currentClass
+        if (internalName == currentClass)
+            return false
+        
+        // Plugins may shade JDK, library or server classes (e.g. kotlin-stdlib), so the plugin index alone can't tell
+        // whether a class belongs to the plugin. The server index doesn't cover those either, hence the full lookup.
+        return internalName !in minecraftClassPath
     }
     
-    private fun fixType(type: Type, currentClass: String): Type {
+    private fun fixType(type: Type, currentClass: String, pluginClasses: LazyClassPath?): Type {
         return when (type.sort) {
             Type.OBJECT -> {
                 if (isPluginClass(type.internalName, currentClass)) {
-                    // TODO | this could in theory be optimized to instead search for the first superclass that is not a
-                    // TODO | plugin class to support better frame optimizations by the JVM. In turn, this would obviously
-                    // TODO | also require to build a class hierarchy for server and default library classes.
-                    OBJECT_TYPE
+                    Type.getObjectType(eraseType(type.internalName, currentClass, pluginClasses))
                 } else {
                     type
                 }
             }
             
             Type.ARRAY -> {
-                val elementType = fixType(type.elementType, currentClass)
+                val elementType = fixType(type.elementType, currentClass, pluginClasses)
                 Type.getType("[".repeat(type.dimensions) + elementType.descriptor)
             }
             
@@ -257,9 +263,33 @@ object DynamicInvoker {
         }
     }
     
-    private fun fixDesc(desc: String, currentClass: String): String {
-        val returnType = fixType(Type.getReturnType(desc), currentClass)
-        val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass) }
+    /**
+     * Finds the first public superclass of the plugin class [internalName] that is not a plugin class, so that erased
+     * values keep a useful static type. Falls back to [Object] if the hierarchy of the plugin class is unknown.
+     */
+    private fun eraseType(internalName: String, currentClass: String, pluginClasses: LazyClassPath?): String {
+        if (pluginClasses == null)
+            return OBJECT_TYPE.internalName
+        
+        var superName = pluginClasses.getHeader(internalName)?.superName
+        while (superName != null && superName != currentClass) {
+            if (!isPluginClass(superName, currentClass)) {
+                val superClass = minecraftClassPath.getHeader(superName)
+                    ?: return OBJECT_TYPE.internalName
+                // Casts to the erased type need to be able to access it
+                if (superClass.access and Opcodes.ACC_PUBLIC != 0)
+                    return superName
+                superName = superClass.superName
+            } else {
+                superName = pluginClasses.getHeader(superName)?.superName
+            }
+        }
+        return OBJECT_TYPE.internalName
+    }
+    
+    private fun fixDesc(desc: String, currentClass: String, pluginClasses: LazyClassPath?): String {
+        val returnType = fixType(Type.getReturnType(desc), currentClass, pluginClasses)
+        val argumentTypes = Type.getArgumentTypes(desc).mapTo(mutableListOf()) { fixType(it, currentClass, pluginClasses) }
         return Type.getMethodDescriptor(returnType, *argumentTypes.toTypedArray())
     }
     
@@ -0,0 +1,219 @@
+package xyz.xenondevs.origami.asm
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import kotlin.io.path.exists
+import kotlin.io.path.fileSize
+
+private const val MAGIC = 0x4F524748 // ORGH
+private const val VERSION = 1
+
+private const val FILE_NAME = "origami-hierarchy.bin"
+private const val SERVER_CLASS = "net/minecraft/server/MinecraftServer"
+
+private const val FINGERPRINT_SIZE = 32
+private const val HEADER_SIZE = 8 + FINGERPRINT_SIZE + 16
+private const val RECORD_SIZE = 24
+
+private fun Int.spread(): Int = this xor (this ushr 16)
+
+/**
+ * A persisted index of the [ClassHeader]s of all classes in a [ClassPathIndex], which allows [LazyClassPath] to answer
+ * hierarchy lookups without inflating class files.
+ *
+ * The index is written next to the server jar on the first boot and memory-mapped on later boots, as long as the
+ * [ClassPathIndex.fingerprint] of the class path is unchanged. It can be disabled with `-Dorigami.hierarchy=false`.
+ *
+ * Layout of the file:
+ * - magic, version, fingerprint, string count, record count, interface count, table size
+ * - string offsets, where string i is stored at strings[offsets[i]..<offsets[i + 1]] as UTF-8
+ * - records of the name hash, name, access, super name (-1 if none), first interface and interface count
+ * - interface string indices
+ * - linear probing hash table of record index + 1, 0 marks an empty slot
+ * - string data
+ */
+class HierarchyIndex private constructor(private val buffer: ByteBuffer) {
+    
+    private val stringCount = buffer.getInt(8 + FINGERPRINT_SIZE)
+    private val recordCount = buffer.getInt(12 + FINGERPRINT_SIZE)
+    private val interfaceCount = buffer.getInt(16 + FINGERPRINT_SIZE)
+    private val tableSize = buffer.getInt(20 + FINGERPRINT_SIZE)
+    
+    private val stringOffsetsPos = HEADER_SIZE
+    private val recordsPos = stringOffsetsPos + (stringCount + 1) * 4
+    private val interfacesPos = recordsPos + recordCount * RECORD_SIZE
+    private val tablePos = interfacesPos + interfaceCount * 4
+    private val stringsPos = tablePos + tableSize * 4
+    
+    init {
+        if (stringCount < 0 || recordCount < 0 || interfaceCount < 0 || tableSize <= 0 || tableSize and (tableSize - 1) != 0
+            || stringsPos < 0 || stringsPos > buffer.capacity())
+            throw IOException("Corrupt hierarchy index")
+    }
+    
+    /**
+     * Creates the [ClassHeader] of the class with the given [internalName] and assigns it the given [id],
+     * or returns null if the class is not part of this index.
+     */
+    fun getHeader(internalName: String, id: Int): ClassHeader? {
+        val hash = internalName.hashCode()
+        var slot = hash.spread() and (tableSize - 1)
+        while (true) {
+            val record = buffer.getInt(tablePos + slot * 4) - 1
+            if (record == -1)
+                return null
+            
+            val pos = recordsPos + record * RECORD_SIZE
+            if (buffer.getInt(pos) == hash && matches(buffer.getInt(pos + 4), internalName)) {
+                val superName = buffer.getInt(pos + 12)
+                val firstInterface = buffer.getInt(pos + 16)
+                return ClassHeader(
+                    id,
+                    buffer.getInt(pos + 8),
+                    internalName.intern(),
+                    if (superName != -1) getString(superName) else null,
+                    List(buffer.getInt(pos + 20)) { getString(buffer.getInt(interfacesPos + (firstInterface + it) * 4)) }
+                )
+            }
+            slot = (slot + 1) and (tableSize - 1)
+        }
+    }
+    
+    private fun matches(string: Int, name: String): Boolean {
+        val offset = stringsPos + buffer.getInt(stringOffsetsPos + string * 4)
+        val length = stringsPos + buffer.getInt(stringOffsetsPos + (string + 1) * 4) - offset
+        if (length != name.length) {
+            // Names with non-ASCII characters are longer in UTF-8
+            return name.length < length && getString(string) == name
+        }
+        
+        for (i in 0..<length) {
+            val b = buffer.get(offset + i)
+            if (b < 0 || b.toInt().toChar() != name[i])
+                return false
+        }
+        return true
+    }
+    
+    private fun getString(string: Int): String {
+        val offset = stringsPos + buffer.getInt(stringOffsetsPos + string * 4)
+        val length = stringsPos + buffer.getInt(stringOffsetsPos + (string + 1) * 4) - offset
+        return ByteArray(length).also { buffer.get(offset, it) }.decodeToString().intern()
+    }
+    
+    companion object {
+        
+        private val ENABLED = System.getProperty("origami.hierarchy", "true").toBoolean()
+        
+        /**
+         * Loads the hierarchy index of the class path indexed by [index] from next to the server jar.
+         *
+         * If there is no up-to-date hierarchy index yet, it is written on a background thread and null is returned.
+         */
+        fun load(index: ClassPathIndex): HierarchyIndex? {
+            if (!ENABLED)
+                return null
+            
+            val serverClass = index.find(SERVER_CLASS)
+            if (serverClass == -1)
+                return null
+            val file = Path.of(index.getCodeSource(serverClass).location.toURI()).resolveSibling(FILE_NAME)
+            
+            try {
+                if (file.exists() && file.fileSize() >= HEADER_SIZE) {
+                    val buffer = FileChannel.open(file).use { it.map(FileChannel.MapMode.READ_ONLY, 0, file.fileSize()) }
+                    if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                        val fingerprint = ByteArray(FINGERPRINT_SIZE).also { buffer.get(8, it) }
+                        if (fingerprint.contentEquals(index.fingerprint))
+                            return HierarchyIndex(buffer)
+                    }
+                }
+            } catch (e: Exception) {
+                // Truncated, foreign or otherwise corrupt files are simply written again
+                System.err.println("Failed to load hierarchy index from $file: ${e.message}")
+                e.printStackTrace()
+            }
+            
+            val thread = Thread({ write(index, file) }, "Origami Hierarchy Index Writer")
+            thread.isDaemon = true
+            thread.start()
+            return null
+        }
+        
+        private fun write(index: ClassPathIndex, file: Path) {
+            val strings = LinkedHashMap<String, Int>()
+            fun string(name: String) = strings.getOrPut(name) { strings.size }
+            
+            val records = ArrayList<IntArray>(index.size)
+            val interfaces = ArrayList<Int>()
+            for (id in 0..<index.size) {
+                val name = index.getName(id)
+                val header = try {
+                    ClassHeader.read(index.readUncached(id), id)
+                } catch (e: Exception) {
+                    // Classes that can't be read are left out and looked up in the class path instead
+                    continue
+                }
+                
+                records += intArrayOf(
+                    name.hashCode(),
+                    string(name),
+                    header.access,
+                    header.superName?.let(::string) ?: -1,
+                    interfaces.size,
+                    header.interfaces.size
+                )
+                header.interfaces.mapTo(interfaces, ::string)
+            }
+            
+            val tableSize = Integer.highestOneBit(maxOf(records.size, 1)) * 4
+            val table = IntArray(tableSize)
+            for ((i, record) in records.withIndex()) {
+                var slot = record[0].spread() and (tableSize - 1)
+                while (table[slot] != 0) {
+                    slot = (slot + 1) and (tableSize - 1)
+                }
+                table[slot] = i + 1
+            }
+            
+            val stringData = ByteArrayOutputStream()
+            val out = ByteArrayOutputStream()
+            DataOutputStream(out).use { data ->
+                data.writeInt(MAGIC)
+                data.writeInt(VERSION)
+                data.write(index.fingerprint)
+                data.writeInt(strings.size)
+                data.writeInt(records.size)
+                data.writeInt(interfaces.size)
+                data.writeInt(tableSize)
+                for (string in strings.keys) {
+                    data.writeInt(stringData.size())
+                    stringData.write(string.encodeToByteArray())
+                }
+                data.writeInt(stringData.size())
+                records.forEach { it.forEach(data::writeInt) }
+                interfaces.forEach(data::writeInt)
+                table.forEach(data::writeInt)
+                stringData.writeTo(data)
+            }
+            
+            try {
+                // Other servers may share the directory, so every writer uses its own temporary file
+                val temp = Files.createTempFile(file.parent, FILE_NAME, ".tmp")
+                Files.write(temp, out.toByteArray())
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            } catch (e: IOException) {
+                System.err.println("Failed to write hierarchy index to $file: ${e.message}")
+                e.printStackTrace()
+            }
+        }
+        
+    }
+    
+}
\ No newline at end of file
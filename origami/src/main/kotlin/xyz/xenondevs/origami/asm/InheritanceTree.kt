@@ -1,8 +1,84 @@
 package xyz.xenondevs.origami.asm
 
-import org.objectweb.asm.tree.ClassNode
-
-class InheritanceTree(val clazz: ClassNode) {
-    val superClasses = HashSet<ClassNode>()
-    val subClasses = HashSet<ClassNode>()
+/**
+ * The ancestry of [clazz], stored as a reference to the tree of its [superTree] and the sorted [ClassHeader.id]s of
+ * all interfaces that [clazz] implements but its super class doesn't.
+ *
+ * Classes of a chain share the trees of their super classes, so every level only stores the interfaces it adds and
+ * the memory needed for deep hierarchies grows linearly. Trees are built from the trees of the direct super types,
+ * so each level of a hierarchy is only walked once.
+ */
+class InheritanceTree(val clazz: ClassHeader, private val superTree: InheritanceTree?, interfaces: List<InheritanceTree>) {
+    
+    private val interfaceIds: IntArray
+    
+    init {
+        var ids = IntArray(interfaces.sumOf { it.countInterfaces() + 1 })
+        var i = 0
+        for (itf in interfaces) {
+            ids[i++] = itf.clazz.id
+            i = itf.copyInterfaces(ids, i)
+        }
+        ids.sort()
+        
+        // Remove interfaces that are reachable through multiple parents or are already implemented by the super class
+        var size = 0
+        for (id in ids) {
+            if ((size == 0 || ids[size - 1] != id) && superTree?.implements(id) != true)
+                ids[size++] = id
+        }
+        if (size != ids.size)
+            ids = ids.copyOf(size)
+        interfaceIds = ids
+    }
+    
+    /**
+     * Checks whether [superClass] is a transitive super class or interface of [clazz].
+     */
+    fun isSubClassOf(superClass: ClassHeader): Boolean {
+        val id = superClass.id
+        if (!superClass.isInterface) {
+            var tree = superTree
+            while (tree != null) {
+                if (tree.clazz.id == id)
+                    return true
+                tree = tree.superTree
+            }
+            return false
+        }
+        
+        return implements(id)
+    }
+    
+    private fun implements(id: Int): Boolean {
+        var tree: InheritanceTree? = this
+        while (tree != null) {
+            if (tree.interfaceIds.binarySearch(id) >= 0)
+                return true
+            tree = tree.superTree
+        }
+        return false
+    }
+    
+    private fun countInterfaces(): Int {
+        var count = 0
+        var tree: InheritanceTree? = this
+        while (tree != null) {
+            count += tree.interfaceIds.size
+            tree = tree.superTree
+        }
+        return count
+    }
+    
+    private fun copyInterfaces(destination: IntArray, offset: Int): Int {
+        var i = offset
+        var tree: InheritanceTree? = this
+        while (tree != null) {
+            tree.interfaceIds.copyInto(destination, i)
+            i += tree.interfaceIds.size
+            tree = tree.superTree
+        }
+        return i
+    }
+    
 }
\ No newline at end of file
@@ -2,46 +2,156 @@ package xyz.xenondevs.origami.asm
 
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.tree.ClassNode
-import xyz.xenondevs.origami.util.WriteOnlyArrayList
+import xyz.xenondevs.origami.metrics.ClassPathLookupEvent
+import xyz.xenondevs.origami.metrics.TransformationMetrics
+import xyz.xenondevs.origami.util.BoundedCache
 import java.io.BufferedInputStream
-import java.util.*
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.jar.JarFile
 
 /**
  * A virtual class path with lazy lookups mostly used for inheritance to support [PatchClassWriter.getCommonSuperClass]
  * without actually loading classes.
+ *
+ * All lookups are thread-safe and don't block each other, since classes may be loaded and transformed by multiple
+ * threads at once. Every [ClassHeader] is only published once, so headers can be compared by identity and their ids
+ * stay valid. [ClassNode]s and inheritance trees may be read again after they were evicted, so they must neither be
+ * compared by identity nor modified by callers.
+ *
+ * If an [index] of the given jars is available, classes are looked up in it first, which avoids probing every jar.
+ * Headers are taken from the [hierarchy] index if possible, which doesn't require reading the class file at all.
+ *
+ * Class nodes and inheritance trees are only needed while classes are being transformed, so they are kept in bounded
+ * caches that evict the least recently used entries. The budgets can be changed with
+ * `-Dorigami.classpath.cache.classes=<bytes of class files>` and `-Dorigami.classpath.cache.trees=<trees>`.
+ * Results of [PatchClassWriter.getCommonSuperClass] are cached the same way
+ * (`-Dorigami.classpath.cache.superclasses=<pairs>`).
+ * Class headers are always retained, since inheritance trees rely on their ids.
  */
-class LazyClassPath(val files: WriteOnlyArrayList<JarFile>, private val includeAllCode: Boolean = false) {
+class LazyClassPath(
+    files: List<JarFile> = emptyList(),
+    private val includeAllCode: Boolean = false,
+    val index: ClassPathIndex? = null,
+    private val hierarchy: HierarchyIndex? = null
+) {
+    
+    /**
+     * The jars of this class path, which can only be extended through [addFile]
+     */
+    private val files = CopyOnWriteArrayList(files)
     
     /**
      * A list of classes whose instructions should not be skipped because of patching purposes
      */
-    val codeNeeded = HashSet<String>()
+    val codeNeeded: MutableSet<String> = ConcurrentHashMap.newKeySet()
     
     /**
-     * A map of all classes that have been loaded
+     * A cache of recently loaded classes
      */
-    private val classes = HashMap<String, ClassNode>()
+    private val classes = BoundedCache<String, ClassNode>(CLASS_CACHE_SIZE)
     
     /**
-     * A map of all inheritance trees that have been generated
+     * A map of all class headers that have been loaded
      */
-    private val inheritanceTrees = HashMap<ClassNode, InheritanceTree>()
+    private val headers = ConcurrentHashMap<String, ClassHeader>()
+    private val nextHeaderId = AtomicInteger()
+    
+    /**
+     * The names of all classes that could not be found. These are mostly plugin classes referenced by mixins, which
+     * would otherwise be searched for in all jars every time they are looked up. Cleared when a jar is added.
+     */
+    private val missingClasses: MutableSet<String> = ConcurrentHashMap.newKeySet()
+    
+    /**
+     * A cache of recently generated inheritance trees
+     */
+    private val inheritanceTrees = BoundedCache<ClassHeader, InheritanceTree>(TREE_CACHE_SIZE)
+    
+    /**
+     * A cache of [PatchClassWriter.getCommonSuperClass] results, shared by all writers of this class path
+     */
+    private val commonSuperClasses = BoundedCache<TypePair, String>(COMMON_SUPER_CLASS_CACHE_SIZE)
     
     /**
      * A map of known packages (The first 3 parts) to their URLs
      */
-    private val packageHints = HashMap<String, ArrayList<JarFile>>()
+    private val packageHints = ConcurrentHashMap<String, CopyOnWriteArrayList<JarFile>>()
     
     fun getClass(name: String): ClassNode? {
-        val internalName = name.replace(".", "/")
+        val internalName = name.replace('.', '/')
         classes[internalName]?.let { return it }
         
-        val stream = findClassStream(internalName) ?: return null
+        val bytecode = readClass(internalName) ?: return null
         val options = if (includeAllCode || codeNeeded.contains(internalName)) ClassReader.SKIP_FRAMES else ClassReader.SKIP_CODE
-        val wrapper = ClassNode().also { ClassReader(stream).accept(it, options) }
-        classes[internalName] = wrapper
-        return wrapper
+        val wrapper = ClassNode().also { ClassReader(bytecode).accept(it, options) }
+        // Another thread may have read the same class in the meantime, in which case its node is used
+        return classes.putIfAbsent(internalName, wrapper, bytecode.size)
+    }
+    
+    /**
+     * Gets the [ClassHeader] of the class with the given [name], which is sufficient for hierarchy lookups and much
+     * smaller than a [ClassNode].
+     */
+    fun getHeader(name: String): ClassHeader? {
+        val internalName = name.replace('.', '/')
+        headers[internalName]?.let { return it }
+        
+        hierarchy?.getHeader(internalName, nextHeaderId.getAndIncrement())?.let { return headers.putIfAbsent(internalName, it) ?: it }
+        
+        val bytecode = readClass(internalName) ?: return null
+        val header = ClassHeader.read(bytecode, nextHeaderId.getAndIncrement())
+        return headers.putIfAbsent(internalName, header) ?: header
+    }
+    
+    /**
+     * Checks whether the class with the given [name] exists in this class path.
+     */
+    operator fun contains(name: String): Boolean {
+        val internalName = name.replace('.', '/')
+        if (headers.containsKey(internalName) || index?.contains(internalName) == true)
+            return true
+        
+        return getHeader(internalName) != null
+    }
+    
+    /**
+     * Adds [file] to the end of this class path.
+     */
+    fun addFile(file: JarFile) {
+        files += file
+        missingClasses.clear()
+    }
+    
+    private fun readClass(internalName: String): ByteArray? {
+        if (internalName in missingClasses)
+            return null
+        
+        val event = ClassPathLookupEvent()
+        event.begin()
+        val bytecode = findClassBytes(internalName)
+        event.commit(internalName, bytecode != null)
+        if (bytecode == null)
+            missingClasses += internalName
+        return bytecode
+    }
+    
+    private fun findClassBytes(internalName: String): ByteArray? {
+        if (index != null) {
+            val id = index.find(internalName)
+            if (id != -1) {
+                try {
+                    return index.read(id)
+                } catch (e: IOException) {
+                    System.err.println("Failed to read $internalName from class path index: ${e.message}")
+                    e.printStackTrace()
+                }
+            }
+        }
+        
+        return findClassStream(internalName)?.use { it.readBytes() }
     }
     
     fun findClassStream(internalName: String): BufferedInputStream? {
@@ -62,7 +172,7 @@ class LazyClassPath(val files: WriteOnlyArrayList<JarFile>, private val includeA
         if (stream == null) {
             stream = files.firstNotNullOfOrNull { jar ->
                 val entry = jar.getJarEntry(entryName) ?: return@firstNotNullOfOrNull null
-                packageHints.computeIfAbsent(projectPackage) { ArrayList() }.add(jar)
+                packageHints.computeIfAbsent(projectPackage) { CopyOnWriteArrayList() }.addIfAbsent(jar)
                 jar.getInputStream(entry).buffered()
             }
         }
@@ -79,49 +189,49 @@ class LazyClassPath(val files: WriteOnlyArrayList<JarFile>, private val includeA
         }
     }
     
-    fun getTree(clazz: ClassNode, knownSubClasses: List<ClassNode> = emptyList()): InheritanceTree {
-        if (clazz !in inheritanceTrees)
-            return addInheritanceTree(clazz, knownSubClasses)
-        
-        val inheritanceTree = inheritanceTrees[clazz]!!
-        if (knownSubClasses.isNotEmpty()) {
-            inheritanceTree.subClasses += knownSubClasses
-            inheritanceTree.superClasses.forEach { superClass ->
-                // The tree has to exist because of the recursive calls in addInheritanceTree
-                val superTree = inheritanceTrees[superClass]!!
-                superTree.subClasses += knownSubClasses
-            }
-        }
-        return inheritanceTree
-    }
-    
-    private fun addInheritanceTree(clazz: ClassNode, knownSubClasses: List<ClassNode>): InheritanceTree {
-        val tree = InheritanceTree(clazz)
-        tree.subClasses.addAll(knownSubClasses)
-        val subClasses = if (knownSubClasses.isNotEmpty())
-            knownSubClasses.toMutableList().apply { add(clazz) }
-        else Collections.singletonList(clazz)
+    fun getTree(clazz: ClassHeader): InheritanceTree {
+        inheritanceTrees[clazz]?.let { return it }
         
-        clazz.superName?.let { superName ->
-            val superClass = getClass(superName)
+        val superTree = clazz.superName?.let { superName ->
+            val superClass = getHeader(superName)
                 ?: throw ClassNotFoundException("Could not resolve super class $superName of $clazz")
-            tree.superClasses += superClass
-            val superTree = getTree(superClass, subClasses)
-            tree.superClasses += superTree.superClasses
+            getTree(superClass)
         }
         
-        clazz.interfaces?.let { interfaces ->
-            interfaces.forEach { i ->
-                val superClass = getClass(i)
-                    ?: throw ClassNotFoundException("Could not resolve interface $i of $clazz")
-                tree.superClasses += superClass
-                val superTree = getTree(superClass, subClasses)
-                tree.superClasses += superTree.superClasses
-            }
+        val interfaces = clazz.interfaces.map { i ->
+            val superClass = getHeader(i)
+                ?: throw ClassNotFoundException("Could not resolve interface $i of $clazz")
+            getTree(superClass)
+        }
+        
+        // Trees can't be built inside computeIfAbsent because of the recursive calls, so two threads may build the same
+        // tree at once, in which case only the first one is kept.
+        return inheritanceTrees.putIfAbsent(clazz, InheritanceTree(clazz, superTree, interfaces))
+    }
+    
+    /**
+     * Gets the common super class of [type1] and [type2] from a cache that is shared by all [PatchClassWriter]s of
+     * this class path, or computes it with [compute] if it isn't cached yet.
+     */
+    fun getCommonSuperClass(type1: String, type2: String, compute: () -> String): String {
+        commonSuperClasses[TypePair(type1, type2)]?.let {
+            TransformationMetrics.recordCommonSuperClassHit()
+            return it
         }
         
-        inheritanceTrees[clazz] = tree
-        return tree
+        TransformationMetrics.recordCommonSuperClassMiss()
+        // Names in keys are interned, since the passed names are usually taken from the constant pool of a class file
+        return commonSuperClasses.putIfAbsent(TypePair(type1.intern(), type2.intern()), compute())
+    }
+    
+    private data class TypePair(val type1: String, val type2: String)
+    
+    companion object {
+        
+        private val COMMON_SUPER_CLASS_CACHE_SIZE = System.getProperty("origami.classpath.cache.superclasses", "65536").toLong()
+        private val CLASS_CACHE_SIZE = System.getProperty("origami.classpath.cache.classes", (16 shl 20).toString()).toLong()
+        private val TREE_CACHE_SIZE = System.getProperty("origami.classpath.cache.trees", "16384").toLong()
+        
     }
     
 }
\ No newline at end of file
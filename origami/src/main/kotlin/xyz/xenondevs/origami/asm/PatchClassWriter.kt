@@ -1,22 +1,44 @@
 package xyz.xenondevs.origami.asm
 
+import org.objectweb.asm.ClassVisitor
 import org.objectweb.asm.ClassWriter
-import org.objectweb.asm.tree.ClassNode
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
 import xyz.xenondevs.origami.Origami
-import xyz.xenondevs.origami.util.isInterface
 
 private const val OBJECT_INTERNAL = "java/lang/Object"
 
-class PatchClassWriter(val classPath: LazyClassPath, flags: Int = COMPUTE_FRAMES) : ClassWriter(flags) {
+class PatchClassWriter(val classPath: LazyClassPath, private val flags: Int = COMPUTE_FRAMES) : ClassWriter(flags) {
     
     constructor(flags: Int = COMPUTE_FRAMES) : this(Origami.instance.minecraftClasspath, flags)
     
-    override fun getCommonSuperClass(type1: String, type2: String): String {
+    /**
+     * Creates a [ClassVisitor] that writes to this writer, but only applies [COMPUTE_FRAMES] to the methods in
+     * [recomputeFrames] (identified by name + descriptor). All other methods keep their original frames as well as
+     * their maximum stack size and locals.
+     */
+    fun withSelectiveFrames(recomputeFrames: Set<String>): ClassVisitor {
+        if (flags and COMPUTE_FRAMES == 0)
+            return this
+        
+        return object : ClassVisitor(Opcodes.ASM9, this) {
+            override fun visitMethod(access: Int, name: String, descriptor: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+                this@PatchClassWriter.setFlags(if (name + descriptor in recomputeFrames) flags else flags and COMPUTE_FRAMES.inv())
+                return super.visitMethod(access, name, descriptor, signature, exceptions)
+            }
+        }
+    }
+    
+    public override fun getCommonSuperClass(type1: String, type2: String): String {
         if (OBJECT_INTERNAL == type1 || OBJECT_INTERNAL == type2)
             return OBJECT_INTERNAL
         
-        val type1Class = classPath.getClass(type1)!!
-        val type2Class = classPath.getClass(type2)!!
+        return classPath.getCommonSuperClass(type1, type2) { computeCommonSuperClass(type1, type2) }
+    }
+    
+    private fun computeCommonSuperClass(type1: String, type2: String): String {
+        val type1Class = classPath.getHeader(type1)!!
+        val type2Class = classPath.getHeader(type2)!!
         
         val firstCommon = findCommonSuperName(type1Class, type2Class)
         val secondCommon = findCommonSuperName(type2Class, type1Class)
@@ -27,33 +49,33 @@ class PatchClassWriter(val classPath: LazyClassPath, flags: Int = COMPUTE_FRAMES
             return secondCommon
         
         return getCommonSuperClass(
-            type1Class.superName,
-            type2Class.superName
+            type1Class.superName!!,
+            type2Class.superName!!
         )
     }
     
-    private fun findCommonSuperName(class1: ClassNode, class2: ClassNode): String {
+    private fun findCommonSuperName(class1: ClassHeader, class2: ClassHeader): String {
         if (isAssignableFrom(class1, class2))
             return class1.name
         if (isAssignableFrom(class2, class1))
             return class2.name
         
-        if (class1.isInterface() || class2.isInterface())
+        if (class1.isInterface || class2.isInterface)
             return OBJECT_INTERNAL
         
-        var new = classPath.getClass(class1.superName)!!
+        var new = classPath.getHeader(class1.superName!!)!!
         while (!isAssignableFrom(new, class2)) {
-            new = classPath.getClass(new.superName)!!
+            new = classPath.getHeader(new.superName!!)!!
         }
         
         return new.name
     }
     
-    fun isAssignableFrom(clazz1: ClassNode, clazz2: ClassNode): Boolean {
-        if (clazz1 == clazz2)
+    fun isAssignableFrom(clazz1: ClassHeader, clazz2: ClassHeader): Boolean {
+        if (clazz1 === clazz2)
             return true
         
-        return classPath.getTree(clazz2).superClasses.contains(clazz1)
+        return classPath.getTree(clazz2).isSubClassOf(clazz1)
     }
     
 }
\ No newline at end of file
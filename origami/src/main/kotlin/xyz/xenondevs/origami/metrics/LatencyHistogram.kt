@@ -0,0 +1,33 @@
+package xyz.xenondevs.origami.metrics
+
+import java.util.concurrent.atomic.LongAdder
+
+private val BUCKET_BOUNDS = longArrayOf(100_000, 500_000, 1_000_000, 5_000_000, 10_000_000, 50_000_000, 100_000_000, 500_000_000)
+private val BUCKET_NAMES = BUCKET_BOUNDS.map { "<=${it / 1_000_000.0}ms" } + ">${BUCKET_BOUNDS.last() / 1_000_000.0}ms"
+
+/**
+ * A lock-free histogram of durations with fixed buckets between 0.1 ms and 500 ms.
+ */
+class LatencyHistogram {
+    
+    private val buckets = Array(BUCKET_BOUNDS.size + 1) { LongAdder() }
+    private val count = LongAdder()
+    private val totalNanos = LongAdder()
+    
+    fun record(nanos: Long) {
+        var bucket = BUCKET_BOUNDS.indexOfFirst { nanos <= it }
+        if (bucket == -1)
+            bucket = BUCKET_BOUNDS.size
+        buckets[bucket].increment()
+        count.increment()
+        totalNanos.add(nanos)
+    }
+    
+    fun count(): Long = count.sum()
+    
+    fun totalMillis(): Double = totalNanos.sum() / 1_000_000.0
+    
+    fun toMap(): Map<String, Long> =
+        BUCKET_NAMES.withIndex().associateTo(LinkedHashMap()) { (i, name) -> name to buckets[i].sum() }
+    
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+package xyz.xenondevs.origami.metrics
+
+import jdk.jfr.Category
+import jdk.jfr.Description
+import jdk.jfr.Event
+import jdk.jfr.Label
+import jdk.jfr.Name
+import xyz.xenondevs.origami.transformer.runtime.Transformer
+
+/**
+ * Recorded for every class that is passed through the transformer registry and has at least one transformer.
+ */
+@Name("xyz.xenondevs.origami.ClassTransform")
+@Label("Class Transform")
+@Category("Origami")
+@Description("Transformation of a Minecraft class by mixins and access wideners")
+class ClassTransformEvent : Event() {
+    
+    @Label("Class")
+    @JvmField
+    var className: String? = null
+    
+    @Label("Transformers")
+    @JvmField
+    var transformers: String? = null
+    
+    fun commit(className: String, transformers: List<Transformer>) {
+        if (!shouldCommit())
+            return
+        
+        this.className = className
+        this.transformers = transformers.joinToString { it.javaClass.simpleName }
+        commit()
+    }
+    
+}
+
+/**
+ * Recorded for every plugin handle that is resolved by [xyz.xenondevs.origami.PluginProxy] when the first call site in
+ * a mixin that needs it is invoked, and for every call site that is linked to a plugin class right away.
+ */
+@Name("xyz.xenondevs.origami.PluginProxyLink")
+@Label("Plugin Proxy Link")
+@Category("Origami")
+@Description("Linkage of a call site or resolution of a handle from a mixin to a plugin class")
+class PluginProxyLinkEvent : Event() {
+    
+    @Label("Plugin")
+    @JvmField
+    var plugin: String? = null
+    
+    @Label("Owner")
+    @JvmField
+    var owner: String? = null
+    
+    @Label("Handle Type")
+    @JvmField
+    var handleType: String? = null
+    
+    @Label("Member")
+    @JvmField
+    var member: String? = null
+    
+    fun commit(plugin: String, owner: String, handleType: String, member: String?) {
+        if (!shouldCommit())
+            return
+        
+        this.plugin = plugin
+        this.owner = owner
+        this.handleType = handleType
+        this.member = member
+        commit()
+    }
+    
+}
+
+/**
+ * Recorded for every lookup in a [xyz.xenondevs.origami.asm.LazyClassPath] that isn't cached and needs to read the
+ * class from disk.
+ */
+@Name("xyz.xenondevs.origami.ClassPathLookup")
+@Label("Class Path Lookup")
+@Category("Origami")
+@Description("Lookup of a class in a lazy class path that was not cached")
+class ClassPathLookupEvent : Event() {
+    
+    @Label("Class")
+    @JvmField
+    var className: String? = null
+    
+    @Label("Found")
+    @JvmField
+    var found: Boolean = false
+    
+    fun commit(className: String, found: Boolean) {
+        if (!shouldCommit())
+            return
+        
+        this.className = className
+        this.found = found
+        commit()
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package xyz.xenondevs.origami.metrics
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.io.path.Path
+import kotlin.io.path.createParentDirectories
+import kotlin.io.path.writeText
+
+/**
+ * Records the duration of the startup phases of Origami, as well as the scan and parse times of each plugin and
+ * the preparation time of each mixin config.
+ *
+ * The timeline is printed once Origami is initialized and can additionally be written to a JSON file
+ * with `-Dorigami.timeline.file=<path>`.
+ */
+object StartupTimeline {
+    
+    private val FILE = System.getProperty("origami.timeline.file")
+    
+    private class Entry(val category: String, val name: String, val start: Long, val duration: Long, val thread: String)
+    
+    private val origin = System.nanoTime()
+    private val entries = ConcurrentLinkedQueue<Entry>()
+    
+    /**
+     * Runs [block] and records its duration as an entry of [category] with the given [name].
+     */
+    inline fun <T> record(category: String, name: String, block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(category, name, start, System.nanoTime())
+        }
+    }
+    
+    /**
+     * Records an entry of [category] with the given [name] that started at [start] and ended at [end] (in [System.nanoTime]).
+     */
+    fun record(category: String, name: String, start: Long, end: Long) {
+        entries += Entry(category, name, start - origin, end - start, Thread.currentThread().name)
+    }
+    
+    /**
+     * Prints the timeline and writes it to the configured JSON file, if any.
+     */
+    fun report() {
+        val sorted = entries.sortedBy(Entry::start)
+        val total = System.nanoTime() - origin
+        
+        val nameWidth = sorted.maxOfOrNull { it.name.length } ?: 0
+        val report = StringBuilder("[Origami] Startup timeline (${formatMillis(total)} ms total):")
+        for ((category, categoryEntries) in sorted.groupBy(Entry::category)) {
+            report.append("\n  ").append(category).append(" (").append(formatMillis(categoryEntries.sumOf(Entry::duration))).append(" ms)")
+            for (entry in categoryEntries) {
+                report.append("\n    ")
+                    .append(entry.name.padEnd(nameWidth))
+                    .append(" +").append(formatMillis(entry.start).padStart(9)).append(" ms")
+                    .append(formatMillis(entry.duration).padStart(10)).append(" ms")
+            }
+        }
+        println(report)
+        
+        if (FILE != null)
+            writeJson(sorted, total)
+    }
+    
+    private fun writeJson(entries: List<Entry>, total: Long) {
+        val json = JsonObject()
+        json.addProperty("totalMillis", total / 1_000_000.0)
+        val array = JsonArray()
+        for (entry in entries) {
+            val obj = JsonObject()
+            obj.addProperty("category", entry.category)
+            obj.addProperty("name", entry.name)
+            obj.addProperty("startMillis", entry.start / 1_000_000.0)
+            obj.addProperty("durationMillis", entry.duration / 1_000_000.0)
+            obj.addProperty("thread", entry.thread)
+            array.add(obj)
+        }
+        json.add("entries", array)
+        
+        try {
+            val path = Path(FILE)
+            path.createParentDirectories()
+            path.writeText(GsonBuilder().setPrettyPrinting().create().toJson(json))
+        } catch (e: IOException) {
+            System.err.println("Failed to write startup timeline to $FILE: ${e.message}")
+            e.printStackTrace()
+        }
+    }
+    
+    private fun formatMillis(nanos: Long): String {
+        return "%.2f".format(Locale.ROOT, nanos / 1_000_000.0)
+    }
+    
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+package xyz.xenondevs.origami.metrics
+
+import xyz.xenondevs.origami.metrics.TransformationMetricsMXBean.ClassTiming
+import xyz.xenondevs.origami.metrics.TransformationMetricsMXBean.TransformerStatistics
+import java.lang.management.ManagementFactory
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import javax.management.ObjectName
+
+private const val SLOWEST_CLASSES = 20
+
+/**
+ * Collects statistics about class transformation and class loading, exposed via JMX.
+ */
+object TransformationMetrics : TransformationMetricsMXBean {
+    
+    private val transformations = LatencyHistogram()
+    private val transformerHistograms = ConcurrentHashMap<String, LatencyHistogram>()
+    private val transformationThreads = ConcurrentHashMap<String, LongAdder>()
+    private val bytesInAdder = LongAdder()
+    private val bytesOutAdder = LongAdder()
+    private val commonSuperClassHitsAdder = LongAdder()
+    private val commonSuperClassMissesAdder = LongAdder()
+    
+    private val findClass = LatencyHistogram()
+    private val findClassThreads = ConcurrentHashMap<String, LongAdder>()
+    
+    private val handleResolution = LatencyHistogram()
+    private val handleResolutionThreads = ConcurrentHashMap<String, LongAdder>()
+    
+    private val slowest = PriorityQueue<Pair<Long, ClassTiming>>(SLOWEST_CLASSES + 1, compareBy { it.first })
+    
+    @Volatile
+    private var slowestThreshold = 0L
+    
+    fun register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, ObjectName("xyz.xenondevs.origami:type=TransformationMetrics"))
+        } catch (e: Exception) {
+            System.err.println("Failed to register transformation metrics: ${e.message}")
+        }
+    }
+    
+    /**
+     * Records the transformation of the class [name] from [bytesIn] to [bytesOut] bytes, which took [nanos].
+     */
+    fun recordTransformation(name: String, nanos: Long, bytesIn: Int, bytesOut: Int) {
+        val thread = Thread.currentThread().name
+        transformations.record(nanos)
+        transformationThreads.computeIfAbsent(thread) { LongAdder() }.increment()
+        bytesInAdder.add(bytesIn.toLong())
+        bytesOutAdder.add(bytesOut.toLong())
+        
+        if (nanos > slowestThreshold) {
+            synchronized(slowest) {
+                slowest += nanos to ClassTiming(name, nanos / 1_000_000.0, thread)
+                if (slowest.size > SLOWEST_CLASSES) {
+                    slowest.poll()
+                    slowestThreshold = slowest.peek().first
+                }
+            }
+        }
+    }
+    
+    /**
+     * Records a single invocation of the [transformer] (or any other stage of the transformation) that took [nanos].
+     */
+    fun recordTransformer(transformer: String, nanos: Long) {
+        transformerHistograms.computeIfAbsent(transformer) { LatencyHistogram() }.record(nanos)
+    }
+    
+    fun recordCommonSuperClassHit() = commonSuperClassHitsAdder.increment()
+    
+    fun recordCommonSuperClassMiss() = commonSuperClassMissesAdder.increment()
+    
+    /**
+     * Records a class that was found and defined by the Minecraft class loader in [nanos].
+     */
+    @JvmStatic
+    fun recordFindClass(nanos: Long) {
+        findClass.record(nanos)
+        findClassThreads.computeIfAbsent(Thread.currentThread().name) { LongAdder() }.increment()
+    }
+    
+    /**
+     * Records a plugin handle that was resolved by a [xyz.xenondevs.origami.PluginProxy] call site in [nanos],
+     * including the time spent waiting for its plugin class to load.
+     */
+    @JvmStatic
+    fun recordHandleResolution(nanos: Long) {
+        handleResolution.record(nanos)
+        handleResolutionThreads.computeIfAbsent(Thread.currentThread().name) { LongAdder() }.increment()
+    }
+    
+    override val transformedClasses: Long
+        get() = transformations.count()
+    
+    override val transformationMillis: Double
+        get() = transformations.totalMillis()
+    
+    override val transformationHistogram: Map<String, Long>
+        get() = transformations.toMap()
+    
+    override val bytesIn: Long
+        get() = bytesInAdder.sum()
+    
+    override val bytesOut: Long
+        get() = bytesOutAdder.sum()
+    
+    override val commonSuperClassHits: Long
+        get() = commonSuperClassHitsAdder.sum()
+    
+    override val commonSuperClassMisses: Long
+        get() = commonSuperClassMissesAdder.sum()
+    
+    override val commonSuperClassHitRate: Double
+        get() {
+            val hits = commonSuperClassHits
+            val total = hits + commonSuperClassMisses
+            return if (total == 0L) 0.0 else hits.toDouble() / total
+        }
+    
+    override val transformers: List<TransformerStatistics>
+        get() = transformerHistograms.map { (name, histogram) ->
+            TransformerStatistics(name, histogram.count(), histogram.totalMillis(), histogram.toMap())
+        }
+    
+    override val slowestClasses: List<ClassTiming>
+        get() = synchronized(slowest) { slowest.sortedByDescending { it.first }.map { it.second } }
+    
+    override val transformationsByThread: Map<String, Long>
+        get() = transformationThreads.mapValues { it.value.sum() }
+    
+    override val definedClasses: Long
+        get() = findClass.count()
+    
+    override val findClassHistogram: Map<String, Long>
+        get() = findClass.toMap()
+    
+    override val definedClassesByThread: Map<String, Long>
+        get() = findClassThreads.mapValues { it.value.sum() }
+    
+    override val resolvedHandles: Long
+        get() = handleResolution.count()
+    
+    override val handleResolutionMillis: Double
+        get() = handleResolution.totalMillis()
+    
+    override val handleResolutionHistogram: Map<String, Long>
+        get() = handleResolution.toMap()
+    
+    override val resolvedHandlesByThread: Map<String, Long>
+        get() = handleResolutionThreads.mapValues { it.value.sum() }
+    
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package xyz.xenondevs.origami.metrics
+
+/**
+ * Management interface of [TransformationMetrics], registered as `xyz.xenondevs.origami:type=TransformationMetrics`.
+ */
+interface TransformationMetricsMXBean {
+    
+    /**
+     * The amount of classes that were passed through the transformer registry and had at least one transformer.
+     */
+    val transformedClasses: Long
+    
+    /**
+     * The total time spent transforming classes, including cache lookups.
+     */
+    val transformationMillis: Double
+    
+    /**
+     * The latency distribution of class transformations, including cache lookups.
+     */
+    val transformationHistogram: Map<String, Long>
+    
+    /**
+     * The total size of the original class files of all transformed classes.
+     */
+    val bytesIn: Long
+    
+    /**
+     * The total size of the transformed class files.
+     */
+    val bytesOut: Long
+    
+    /**
+     * The amount of common super class lookups of class writers that were answered from the shared cache.
+     */
+    val commonSuperClassHits: Long
+    
+    /**
+     * The amount of common super class lookups of class writers that had to walk the class hierarchy.
+     */
+    val commonSuperClassMisses: Long
+    
+    /**
+     * The ratio of [commonSuperClassHits] to all common super class lookups.
+     */
+    val commonSuperClassHitRate: Double
+    
+    /**
+     * Invocation counts and latencies per transformer.
+     */
+    val transformers: List<TransformerStatistics>
+    
+    /**
+     * The slowest class transformations so far, slowest first.
+     */
+    val slowestClasses: List<ClassTiming>
+    
+    /**
+     * The amount of class transformations per thread name.
+     */
+    val transformationsByThread: Map<String, Long>
+    
+    /**
+     * The amount of classes that were defined by the Minecraft class loader.
+     */
+    val definedClasses: Long
+    
+    /**
+     * The latency distribution of finding and defining classes in the Minecraft class loader.
+     */
+    val findClassHistogram: Map<String, Long>
+    
+    /**
+     * The amount of classes that were found and defined by the Minecraft class loader per thread name.
+     */
+    val definedClassesByThread: Map<String, Long>
+    
+    /**
+     * The amount of plugin handles that were resolved by mixin call sites.
+     */
+    val resolvedHandles: Long
+    
+    /**
+     * The total time threads spent resolving plugin handles, including waiting for plugin classes to load.
+     */
+    val handleResolutionMillis: Double
+    
+    /**
+     * The latency distribution of resolving plugin handles.
+     */
+    val handleResolutionHistogram: Map<String, Long>
+    
+    /**
+     * The amount of plugin handles that were resolved per thread name.
+     */
+    val resolvedHandlesByThread: Map<String, Long>
+    
+    data class TransformerStatistics(val name: String, val invocations: Long, val totalMillis: Double, val histogram: Map<String, Long>)
+    
+    data class ClassTiming(val className: String, val millis: Double, val thread: String)
+    
+}
\ No newline at end of file
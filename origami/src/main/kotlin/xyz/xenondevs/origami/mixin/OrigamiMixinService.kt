@@ -19,21 +19,20 @@ import xyz.xenondevs.origami.Origami
 import xyz.xenondevs.origami.PluginLoader
 import xyz.xenondevs.origami.asm.LazyClassPath
 import xyz.xenondevs.origami.transformer.runtime.MixinTransformer
-import xyz.xenondevs.origami.util.WriteOnlyArrayList
 import java.io.InputStream
 import java.net.URL
 import java.util.jar.JarFile
 
 class OrigamiMixinService : IMixinService, IClassProvider, IClassBytecodeProvider {
     
-    private val pluginsClasspath = LazyClassPath(WriteOnlyArrayList(), includeAllCode = true)
+    private val pluginsClasspath = LazyClassPath(includeAllCode = true)
     private val plugins = HashMap<String, JarFile>()
     private val lock = ReEntranceLock(1)
     private val origami = Origami.instance
     private val container = ContainerHandleVirtual("Origami")
     
     fun addToClasspath(id: String, plugin: JarFile) {
-        pluginsClasspath.files.add(plugin)
+        pluginsClasspath.addFile(plugin)
         plugins[id] = plugin
     }
     
@@ -126,16 +125,16 @@ class OrigamiMixinService : IMixinService, IClassProvider, IClassBytecodeProvide
     }
     
     override fun getClassNode(name: String, runTransformers: Boolean, readerFlags: Int): ClassNode? {
-        // TODO(?) if this is ever actually needed, have a second instance of LazyClassPath with shared package hints
-        //         to get the original class files.
-        require(runTransformers) { "Getting original class nodes is currently not supported in Origami." }
-        
         val internal = name.replace('.', '/')
         
-        val transformed = origami.minecraftLoader.getTransformedData(internal, false)
-        if (transformed != null) { // TODO cache
+        // Transformed class files are shared with the class loader, so this doesn't transform the class again.
+        // Original class files are read through the same class path index without running any transformers.
+        val classData = if (runTransformers)
+            origami.minecraftLoader.getTransformedData(internal, false)
+        else origami.minecraftLoader.getClassData(internal, false)
+        if (classData != null) {
             val node = ClassNode()
-            val reader = ClassReader(transformed.bytecode())
+            val reader = ClassReader(classData.bytecode())
             reader.accept(node, readerFlags)
             return node
         }
@@ -129,7 +129,7 @@ object PaperPluginClassLoaderTransformer : PaperTransformer {
             aLoad(0)
             getField(clazz.name, PLUGIN_NAME_FIELD, "Ljava/lang/String;")
             swap()
-            invokeStatic(PluginProxy::class.internalName, "initializeHandles", "(Ljava/lang/String;Ljava/lang/Class;)V")
+            invokeStatic(PluginProxy::class.internalName, "registerClass", "(Ljava/lang/String;Ljava/lang/Class;)V")
             
             add(skip)
         }
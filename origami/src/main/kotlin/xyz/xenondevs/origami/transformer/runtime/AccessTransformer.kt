@@ -3,6 +3,8 @@ package xyz.xenondevs.origami.transformer.runtime
 import net.fabricmc.accesswidener.AccessWidener
 import net.fabricmc.accesswidener.AccessWidenerClassVisitor
 import net.fabricmc.accesswidener.AccessWidenerReader
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
 import org.objectweb.asm.Opcodes
 import org.objectweb.asm.tree.ClassNode
 import java.io.InputStream
@@ -11,6 +13,8 @@ object AccessTransformer : Transformer {
     
     val accessWidener = AccessWidener()
     
+    override val modifiesCode = false
+    
     fun readAccessWidener(stream: InputStream) {
         val reader = stream.bufferedReader()
         reader.use(AccessWidenerReader(accessWidener)::read)
@@ -27,4 +31,16 @@ object AccessTransformer : Transformer {
         
         return new
     }
+    
+    /**
+     * Applies the access widener to [bytecode] without building a tree. Since widening never changes any code,
+     * the constant pool and method bodies are copied from the original class and no frames need to be computed.
+     */
+    fun transform(bytecode: ByteArray): ByteArray {
+        val reader = ClassReader(bytecode)
+        val writer = ClassWriter(reader, 0)
+        reader.accept(AccessWidenerClassVisitor.createClassVisitor(Opcodes.ASM9, writer, accessWidener), 0)
+        return writer.toByteArray()
+    }
+    
 }
\ No newline at end of file
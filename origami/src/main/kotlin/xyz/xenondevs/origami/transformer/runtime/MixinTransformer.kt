@@ -18,6 +18,10 @@ object MixinTransformer : Transformer {
     }
     
     override fun getTargetClasses(): Set<String> {
+        // The transformer is only offered once mixin is bootstrapped
+        if (!::transformer.isInitialized)
+            return emptySet()
+        
         transformer.couldTransformClass(MixinEnvironment.getCurrentEnvironment(), "1")
         val mixinTargets = PluginLoader.mixinConfigs.flatMapTo(HashSet()) { it.targets }
         val classesField = runtimeClasses.javaClass.getDeclaredField("classes").apply { isAccessible = true }.get(runtimeClasses) as Map<*, *>
@@ -4,6 +4,13 @@ import org.objectweb.asm.tree.ClassNode
 
 interface Transformer {
     
+    /**
+     * Whether this transformer may change method bodies. Frames are only recomputed for methods changed by
+     * transformers that do.
+     */
+    val modifiesCode: Boolean
+        get() = true
+    
     fun getTargetClasses(): Set<String>
     
     fun transform(clazz: ClassNode, original: ByteArray): ClassNode?
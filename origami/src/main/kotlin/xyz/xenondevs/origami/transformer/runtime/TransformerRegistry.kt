@@ -3,14 +3,35 @@ package xyz.xenondevs.origami.transformer.runtime
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.tree.ClassNode
 import org.spongepowered.asm.mixin.MixinEnvironment
+import xyz.xenondevs.origami.PatchingClassLoader
+import xyz.xenondevs.origami.asm.CodeSnapshot
 import xyz.xenondevs.origami.asm.PatchClassWriter
+import xyz.xenondevs.origami.metrics.ClassTransformEvent
+import xyz.xenondevs.origami.metrics.TransformationMetrics
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
 
 object TransformerRegistry {
     
+    private val PRETRANSFORM = System.getProperty("origami.pretransform", "true").toBoolean()
+    
     private val transformers = listOf(MixinTransformer, AccessTransformer)
     private val toTransform = ConcurrentHashMap<String, MutableList<Transformer>>()
     
+    /**
+     * The transformations of all target classes, mapped by the internal class name. Results are retained until the
+     * class is defined and [released][release], so a class is only transformed once, no matter how often mixin
+     * inspects it before that. Classes that are already defined are transformed through [transformUnretained].
+     */
+    private val results = ConcurrentHashMap<String, FutureTask<ByteArray?>>()
+    
+    /**
+     * The names of the classes that are currently being transformed on this thread.
+     */
+    private val transforming = ThreadLocal.withInitial { HashSet<String>() }
+    
     fun init() {
         transformers.forEach { transformer ->
             transformer.getTargetClasses().forEach { clazz ->
@@ -19,16 +40,112 @@ object TransformerRegistry {
         }
     }
     
+    /**
+     * Transforms all target classes of [loader] ahead of time on a pool of worker threads, so that the thread that
+     * first loads a target class (usually the main thread) only needs to define it. Mixin applies mixins one class at
+     * a time, so only access widening and frame computation actually run in parallel.
+     *
+     * Can be disabled with `-Dorigami.pretransform=false`.
+     */
+    fun pretransform(loader: PatchingClassLoader) {
+        if (!PRETRANSFORM || toTransform.isEmpty())
+            return
+        
+        val threads = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)
+        val executor = Executors.newFixedThreadPool(threads) { runnable ->
+            Thread(runnable, "Origami Pre-Transformer").apply { isDaemon = true }
+        }
+        
+        for ((name, classTransformers) in toTransform) {
+            val task = createTask(name, classTransformers) { loader.getClassData(name, false)?.bytecode() }
+            if (results.putIfAbsent(name, task) == null)
+                executor.execute(task)
+        }
+        executor.shutdown()
+    }
+    
     @JvmStatic
     fun transform(bytecode: ByteArray, name: String): ByteArray {
         if (toTransform.isEmpty())
             return bytecode
         
         val classTransformers = toTransform.get(name) ?: return bytecode
-        return transformUnchecked(bytecode, name, classTransformers)
+        
+        // Mixin may inspect a class while it is being transformed, which can't wait for its own result
+        val names = transforming.get()
+        if (name in names)
+            return transformMeasured(bytecode, name, classTransformers)
+        
+        val task = results.computeIfAbsent(name) { createTask(name, classTransformers) { bytecode } }
+        // Runs the task on this thread if no other thread has picked it up yet
+        task.run()
+        
+        // A thread that is in the middle of a transformation must never wait for another one, since mixins are applied
+        // under a lock that the other thread may be waiting for. The class is transformed again on this thread instead.
+        if (names.isNotEmpty() && !task.isDone)
+            return transformMeasured(bytecode, name, classTransformers)
+        
+        try {
+            task.get()?.let { return it }
+        } catch (_: ExecutionException) {
+            // Retried below to propagate the exception to the caller
+            results.remove(name, task)
+        }
+        
+        return transformMeasured(bytecode, name, classTransformers)
+    }
+    
+    /**
+     * Transforms the class [name] without retaining the result, which is used for classes that are already defined
+     * and would therefore never be [released][release].
+     */
+    @JvmStatic
+    fun transformUnretained(bytecode: ByteArray, name: String): ByteArray {
+        val classTransformers = toTransform.get(name) ?: return bytecode
+        return transformMeasured(bytecode, name, classTransformers)
+    }
+    
+    /**
+     * Drops the transformation result of the class [name], which is no longer needed once the class has been defined.
+     */
+    @JvmStatic
+    fun release(name: String) {
+        results.remove(name)
+    }
+    
+    private fun createTask(name: String, classTransformers: List<Transformer>, bytecode: () -> ByteArray?): FutureTask<ByteArray?> {
+        return FutureTask {
+            val names = transforming.get()
+            names += name
+            try {
+                transformMeasured(bytecode() ?: return@FutureTask null, name, classTransformers)
+            } finally {
+                names -= name
+            }
+        }
+    }
+    
+    private fun transformMeasured(bytecode: ByteArray, name: String, classTransformers: List<Transformer>): ByteArray {
+        val event = ClassTransformEvent()
+        event.begin()
+        val start = System.nanoTime()
+        
+        val transformed = transformUnchecked(bytecode, name, classTransformers)
+        
+        TransformationMetrics.recordTransformation(name, System.nanoTime() - start, bytecode.size, transformed.size)
+        event.commit(name, classTransformers)
+        return transformed
     }
     
     private fun transformUnchecked(bytecode: ByteArray, name: String, transformers: List<Transformer> = TransformerRegistry.transformers): ByteArray {
+        // Classes that are only widened don't need a tree, let alone frame computation
+        if (bytecode.isNotEmpty() && transformers.singleOrNull() === AccessTransformer) {
+            val start = System.nanoTime()
+            val transformed = AccessTransformer.transform(bytecode)
+            TransformationMetrics.recordTransformer(AccessTransformer.javaClass.simpleName, System.nanoTime() - start)
+            return transformed
+        }
+        
         var clazz = ClassNode()
         
         if (bytecode.isNotEmpty()) {
@@ -42,14 +159,26 @@ object TransformerRegistry {
         }
         
         var reassemble = false
+        // Methods that were added or changed and therefore need new frames
+        val modifiedMethods = HashSet<String>()
         
         for (transformer in transformers) {
-            clazz = transformer.transform(clazz, bytecode) ?: continue
+            val snapshot = if (transformer.modifiesCode) CodeSnapshot(clazz) else null
+            val start = System.nanoTime()
+            val transformed = transformer.transform(clazz, bytecode)
+            TransformationMetrics.recordTransformer(transformer.javaClass.simpleName, System.nanoTime() - start)
+            clazz = transformed ?: continue
+            snapshot?.collectModified(clazz, modifiedMethods)
             reassemble = true
         }
         
         return if (reassemble) {
-            val bytes = PatchClassWriter().also { clazz.accept(it) }.toByteArray()
+            val start = System.nanoTime()
+            val writer = PatchClassWriter()
+            // Generated classes don't have any original frames
+            clazz.accept(if (bytecode.isNotEmpty()) writer.withSelectiveFrames(modifiedMethods) else writer)
+            val bytes = writer.toByteArray()
+            TransformationMetrics.recordTransformer(PatchClassWriter::class.java.simpleName, System.nanoTime() - start)
             bytes
         } else {
             bytecode
@@ -0,0 +1,75 @@
+package xyz.xenondevs.origami.util
+
+private const val SEGMENTS = 16
+
+/**
+ * A thread-safe cache that evicts its least recently used entries once the total weight of all entries exceeds
+ * [maxWeight]. A [maxWeight] of zero disables the cache.
+ *
+ * The cache is split into segments with their own locks and a share of the weight budget, so that concurrent
+ * lookups of different keys rarely block each other.
+ */
+class BoundedCache<K : Any, V : Any>(maxWeight: Long) {
+    
+    private class Segment<K, V>(private val maxWeight: Long) {
+        
+        private val entries = LinkedHashMap<K, Pair<V, Int>>(16, 0.75f, true)
+        private var weight = 0L
+        
+        @Synchronized
+        fun get(key: K): V? = entries[key]?.first
+        
+        @Synchronized
+        fun putIfAbsent(key: K, value: V, weight: Int): V {
+            entries[key]?.let { return it.first }
+            
+            entries[key] = value to weight
+            this.weight += weight
+            if (this.weight > maxWeight) {
+                val iterator = entries.values.iterator()
+                // Always keep the new entry, even if it exceeds the budget on its own
+                while (this.weight > maxWeight && entries.size > 1) {
+                    this.weight -= iterator.next().second
+                    iterator.remove()
+                }
+            }
+            return value
+        }
+        
+        @Synchronized
+        fun remove(key: K) {
+            entries.remove(key)?.let { weight -= it.second }
+        }
+        
+    }
+    
+    private val segments = if (maxWeight > 0) Array(SEGMENTS) { Segment<K, V>(maxWeight / SEGMENTS) } else null
+    
+    /**
+     * Gets the value cached under [key] or null if there is none.
+     */
+    operator fun get(key: K): V? {
+        return segments?.get(segmentIndex(key))?.get(key)
+    }
+    
+    /**
+     * Caches [value] with the given [weight] under [key], unless a value is already cached under [key].
+     * Returns the cached value.
+     */
+    fun putIfAbsent(key: K, value: V, weight: Int = 1): V {
+        return segments?.get(segmentIndex(key))?.putIfAbsent(key, value, weight) ?: value
+    }
+    
+    /**
+     * Removes the value cached under [key], if any.
+     */
+    fun remove(key: K) {
+        segments?.get(segmentIndex(key))?.remove(key)
+    }
+    
+    private fun segmentIndex(key: K): Int {
+        val hash = key.hashCode()
+        return (hash xor (hash ushr 16)) and (SEGMENTS - 1)
+    }
+    
+}
\ No newline at end of file
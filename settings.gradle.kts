@@ -2,6 +2,7 @@ rootProject.name = "origami-parent"
 
 include("origami")
 include("origami-api")
+include("origami-benchmarks")
 include("origami-catalog")
 include("origami-gradle-plugin")
 include("origami-loader")